@@ -0,0 +1,146 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import eu.matejkormuth.rpbuild.api.BuildStep;
+import eu.matejkormuth.rpbuild.api.Setting;
+import eu.matejkormuth.rpbuild.configuration.xml.XmlProject;
+import eu.matejkormuth.rpbuild.configuration.xml.XmlSetting;
+
+/**
+ * Creates resource packs and components used by benchmarks. Generated files
+ * only depend on the seed, so results of different runs can be compared.
+ */
+final class BenchmarkPack {
+	static final long SEED = 0x5eedL;
+
+	private BenchmarkPack() {
+	}
+
+	/**
+	 * Creates resource pack with specified amount of files in new temporary
+	 * directory. About 60% of files are models, 25% are textures and the rest
+	 * are sounds.
+	 * 
+	 * @param files
+	 *            amount of files
+	 * @return root of created pack
+	 * @throws IOException
+	 *             when files can't be written
+	 */
+	static Path create(int files) throws IOException {
+		PackSynthesizer synthesizer = new PackSynthesizer(SEED);
+		synthesizer.setModels(files * 60 / 100);
+		synthesizer.setTextures(files * 25 / 100);
+		synthesizer.setSounds(files - files * 60 / 100 - files * 25 / 100);
+		synthesizer.setResolution(32);
+		return synthesize(synthesizer);
+	}
+
+	/**
+	 * Creates pack containing only sound files.
+	 * 
+	 * @param sounds
+	 *            amount of sound files
+	 * @return root of created pack
+	 * @throws IOException
+	 *             when files can't be written
+	 */
+	static Path createSounds(int sounds) throws IOException {
+		PackSynthesizer synthesizer = new PackSynthesizer(SEED);
+		synthesizer.setModels(0);
+		synthesizer.setTextures(0);
+		synthesizer.setSounds(sounds);
+		return synthesize(synthesizer);
+	}
+
+	static Path createDirectory() throws IOException {
+		return Files.createTempDirectory("rpbuild-bench");
+	}
+
+	static void delete(Path root) throws IOException {
+		if (root != null) {
+			Assembler.deleteTree(root);
+		}
+	}
+
+	/**
+	 * Creates assembler of empty project with specified source folder.
+	 * 
+	 * @param src
+	 *            source folder of project
+	 * @return new assembler
+	 */
+	static Assembler assembler(Path src) {
+		Charset charset = Charset.forName("UTF-8");
+		return new Assembler(new XmlProject("Benchmark", charset.name(),
+				charset, false, true, src, Paths.get("latest.zip"),
+				new BuildStep[0]));
+	}
+
+	/**
+	 * Creates and initializes component in same way as assembler does.
+	 * 
+	 * @param type
+	 *            class of component
+	 * @param assembler
+	 *            assembler of component
+	 * @param settings
+	 *            keys and values of settings
+	 * @return initialized component
+	 * @throws Exception
+	 *             when component can't be created or its settings are invalid
+	 */
+	static <T extends Component> T component(Class<T> type,
+			Assembler assembler, String... settings) throws Exception {
+		Setting[] array = new Setting[settings.length / 2];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = new XmlSetting(settings[i * 2], settings[i * 2 + 1]);
+		}
+
+		T component = type.newInstance();
+		component.setAssembler(assembler);
+		component.setSettings(array);
+		component.onInit();
+		return component;
+	}
+
+	private static Path synthesize(PackSynthesizer synthesizer)
+			throws IOException {
+		Path root = createDirectory();
+		synthesizer.synthesize(root);
+		return root;
+	}
+}
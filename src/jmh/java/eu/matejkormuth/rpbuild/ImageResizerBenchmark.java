@@ -0,0 +1,94 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.matejkormuth.rpbuild.compilers.ImageResizer;
+import eu.matejkormuth.rpbuild.exceptions.BuildError;
+
+/**
+ * Measures resizing of block textures to 32x32 pixels with every
+ * interpolation type.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageResizerBenchmark {
+	@Param({ "nearest", "bilinear", "bicubic", "box", "mitchell", "lanczos" })
+	public String interpolation;
+
+	@Param({ "64", "256", "1024" })
+	public int size;
+
+	private Path root;
+	private Path path;
+	private byte[] image;
+	private ImageResizer resizer;
+
+	@Setup
+	public void setUp() throws Exception {
+		this.root = BenchmarkPack.createDirectory();
+		this.path = this.root.resolve("assets/minecraft/textures/blocks/stone.png");
+		this.image = new PackSynthesizer(BenchmarkPack.SEED).texture(
+				this.size, false);
+		this.resizer = BenchmarkPack.component(ImageResizer.class,
+				BenchmarkPack.assembler(this.root), "interpolation",
+				this.interpolation, "maxResolution", "32");
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		BenchmarkPack.delete(this.root);
+	}
+
+	@Benchmark
+	public byte[] compile() throws BuildError {
+		OpenedFile file = new OpenedFile(this.path, this.image);
+		this.resizer.compile(file);
+		return file.getContents();
+	}
+}
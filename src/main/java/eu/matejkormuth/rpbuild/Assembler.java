@@ -35,20 +35,40 @@ import eu.matejkormuth.rpbuild.exceptions.InvalidSettingsError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.awt.Dimension;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Represents main part of build system. Assembles files and manages build
@@ -57,11 +77,39 @@ import java.util.List;
 public class Assembler {
     private static final Logger log = LoggerFactory.getLogger(Assembler.class);
 
+    // Staging types.
+    public static final String STAGING_COPY = "copy";
+    public static final String STAGING_OVERLAY = "overlay";
+    public static final String STAGING_MEMORY = "memory";
+
     // List of all generator that should be run.
     private List<Generator> generators;
     // List of all pairs file extension - compiler(s) that should be run.
     private List<CompilerListByFileExtension> compilerLists;
+    // Build steps the compilers were created from.
+    private Map<Compiler, BuildStepCompile> compileSteps;
+    // Variants of resource pack archived together with main archive.
+    private Variant[] variants;
+    // Compiler lists of each variant by compiler lists of main archive.
+    // Lists which variant does not change are missing.
+    private List<Map<CompilerListByFileExtension, CompilerListByFileExtension>> variantLists;
+    // Files compiled for each variant which differ from files of main
+    // archive, by path relative to resource pack root.
+    private List<Map<Path, byte[]>> variantFiles;
+    // Pool used by parallel build tasks. Created on first use.
+    private ForkJoinPool pool;
     private FileFinder fileFinder;
+    // Layers of files used in current build.
+    private Overlay overlay;
+    // Cache of compiled files or null when disabled.
+    private CompileCache cache;
+    private BuildMetrics metrics;
+    // Paths of targets relative to src. Targets outside of src are missing.
+    private List<String> targetNames;
+    // Source directory specified in build descriptor.
+    private Path sourceRoot;
+    // Whether build will be followed by incremental rebuilds.
+    private boolean incremental;
     private SimpleDateFormat dateTimeFormat;
     private SimpleDateFormat timeSpanFormat;
     // Build descriptor.
@@ -71,6 +119,10 @@ public class Assembler {
         // Create instances.
         this.generators = new ArrayList<Generator>();
         this.compilerLists = new ArrayList<CompilerListByFileExtension>();
+        this.compileSteps = new IdentityHashMap<Compiler, BuildStepCompile>();
+        this.variantLists = new ArrayList<Map<CompilerListByFileExtension, CompilerListByFileExtension>>();
+        this.variantFiles = new ArrayList<Map<Path, byte[]>>();
+        this.targetNames = new ArrayList<String>();
         this.dateTimeFormat = new SimpleDateFormat();
         this.timeSpanFormat = new SimpleDateFormat("mm:ss.SSS");
 
@@ -89,13 +141,37 @@ public class Assembler {
             }
         }
 
+        // Create compilers with settings of variants.
+        this.variants = this.project.getVariants();
+        for (Variant variant : this.variants) {
+            try {
+                this.variantLists.add(this.createVariantLists(variant));
+            } catch (InvalidSettingsError | InvalidComponentError e) {
+                log.error("Can't initialize compilers of variant {}!",
+                        variant.getTarget());
+                log.error("Exception: ", e);
+
+                terminate();
+            }
+            this.variantFiles.add(new ConcurrentHashMap<Path, byte[]>());
+        }
+
+        // Initialize compile cache.
+        if (this.project.getCache() != null) {
+            this.cache = new CompileCache(this.project.getCache());
+        }
+
+        this.metrics = new BuildMetrics(this.project.isMetrics());
+
         // Initialize file finder.
         this.fileFinder = new FileFinder();
         this.fileFinder.setIgnoreGit(this.project.isIgnoreGitFolders());
+        this.fileFinder.setPool(this.getWalkPool());
     }
 
     public void build() {
         printBuildStart();
+        this.metrics.reset();
 
         // Create temp directory to store files before putting in zip.
         Path tempDirectory = null;
@@ -135,79 +211,71 @@ public class Assembler {
             printSeparator();
         }
 
-        // Copy all files to temp directory.
-        try {
-            final Path sourcePath = this.getProject().getSrc();
-            final Path targetPath = tempDirectory;
-            Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult preVisitDirectory(final Path dir,
-                                                         final BasicFileAttributes attrs) throws IOException {
-
-                    // Ignore .git direcoties, we do not need to copy them.
-                    if (dir.getFileName().toString().equalsIgnoreCase(".git")) {
-                        return FileVisitResult.SKIP_SUBTREE;
-                    }
-
-                    Files.createDirectories(targetPath.resolve(sourcePath
-                            .relativize(dir)));
-                    return FileVisitResult.CONTINUE;
-                }
-
-                @Override
-                public FileVisitResult visitFile(final Path file,
-                                                 final BasicFileAttributes attrs) throws IOException {
-                    Files.copy(file,
-                            targetPath.resolve(sourcePath.relativize(file)));
-                    return FileVisitResult.CONTINUE;
-                }
-            });
-        } catch (Exception e) {
-            log.error("Can't copy source files to temporary folder!", e);
-            printBuildEnd(System.currentTimeMillis() - startTime, "FAILURE");
-
-            terminate();
+        Path src = this.project.getSrc().toAbsolutePath().normalize();
+        this.sourceRoot = src;
+        this.targetNames.clear();
+        for (Path target : this.getTargets()) {
+            target = target.toAbsolutePath().normalize();
+            if (target.startsWith(src)) {
+                this.targetNames.add(src.relativize(target).toString());
+            }
         }
 
-        // Set source in this instance of project to temp directory.
-        // This way all components will work as supposed because they
-        // are working relative to project's src path.
-        try {
-            Field srcField = this.project.getClass().getDeclaredField("src");
-            if (!srcField.isAccessible())
-                srcField.setAccessible(true);
-            srcField.set(this.project, tempDirectory);
-        } catch (Exception e) {
-            log.error("Internal error: Can't set project src to temp folder.",
-                    e);
+        if (STAGING_OVERLAY.equalsIgnoreCase(this.project.getStaging())) {
+            // Source files are read in place, only files written
+            // by the build end up in temp directory.
+            this.overlay = new Overlay(this.project.getSrc(), tempDirectory);
+        } else if (STAGING_MEMORY.equalsIgnoreCase(this.project.getStaging())) {
+            // Like overlay, but files written by the build are kept
+            // in memory until they don't fit there.
+            this.overlay = new Overlay(this.project.getSrc(), tempDirectory);
+            this.overlay.setMemory(this.project.getMemoryFileLimit() * 1024L,
+                    this.project.getMemoryBudget() * 1024L * 1024L);
+        } else if (STAGING_COPY.equalsIgnoreCase(this.project.getStaging())) {
+            this.stageCopy(tempDirectory, startTime);
+            this.overlay = new Overlay(tempDirectory, tempDirectory);
+        } else {
+            log.error("Unknown staging '{}'! Use '{}', '{}' or '{}'.",
+                    this.project.getStaging(), STAGING_COPY, STAGING_OVERLAY,
+                    STAGING_MEMORY);
             printBuildEnd(System.currentTimeMillis() - startTime, "FAILURE");
 
-            // Terminate VM.
             terminate();
+            return;
         }
 
         try {
             // Generate new files.
-            this.taskGenerate();
+            this.taskGenerate(null);
 
             this.printSeparator();
             // Find new generated files and files from git.
             this.findFiles();
 
             // Run tasks.
-            this.taskRunTasks();
+            int scripts = this.taskRunTasks();
 
-            // Compiler files.
-            this.taskCompile();
-            // Assembly files in temporary directory (currently not used).
-            this.taskAssembly();
+            // Scripts could have created new files.
+            if (scripts > 0) {
+                this.printSeparator();
+                this.findFiles();
+            }
 
-            this.printSeparator();
-            // Find new files.
-            this.findFiles();
+            // Rebuilds need compiled files in temporary directory,
+            // so pipeline can't be used with them.
+            if (this.project.isPipeline() && !this.incremental) {
+                // Compile files straight to ZIP.
+                this.taskCompileAndArchive();
+            } else {
+                // Compiler files. Compiled files are added to found files
+                // as they are saved, so there is no need to find them again.
+                this.taskCompile();
+                // Assembly files in temporary directory (currently not used).
+                this.taskAssembly();
 
-            // Archive files to ZIP.
-            this.taskArchive();
+                // Archive files to ZIP.
+                this.taskArchive();
+            }
         } catch (BuildError error) {
             // If some error(s) occurred, output them now.
             log.error("Build failed: ", error);
@@ -218,10 +286,166 @@ public class Assembler {
 
         // Looks like everything went normally.
         long elapsedTime = System.currentTimeMillis() - startTime;
+        this.writeMetrics();
         printBuildEnd(elapsedTime, "SUCCESS");
     }
 
-    private void taskRunTasks() {
+    /**
+     * Builds project again after specified source files have changed. Only
+     * changed files and outputs of generators affected by them are compiled,
+     * all other files are kept from previous build. Scripts are not run
+     * again. Method {@link #build()} must be called before first rebuild.
+     *
+     * @param changed paths of changed, created or deleted files relative to
+     *                source directory
+     * @return true if rebuild was successful
+     */
+    public boolean rebuild(Collection<Path> changed) {
+        printBuildStart();
+        this.metrics.reset();
+        long startTime = System.currentTimeMillis();
+
+        try {
+            // Bring changed source files to staging area.
+            BuildMetrics.Mark mark = this.metrics.startPhase();
+            Set<Path> modified = new LinkedHashSet<Path>();
+            for (Path relative : changed) {
+                if (this.syncFile(relative)) {
+                    modified.add(relative);
+                }
+            }
+            this.metrics.endPhase("copy", mark);
+            // Generate files affected by changes.
+            modified.addAll(this.taskGenerate(changed));
+
+            this.printSeparator();
+            // Find created and deleted files before compiling, so compilers
+            // see them. Compiled files are added to found files as they are
+            // saved, so there is no need to find them again.
+            this.findFiles();
+
+            // Compile again files which outputs depend on changed files.
+            Set<Path> affected = new LinkedHashSet<Path>(changed);
+            affected.addAll(modified);
+            for (Path relative : this.getDependants(affected)) {
+                // Generated files are not in source directory.
+                if (!modified.contains(relative)
+                        && Files.exists(this.sourceRoot.resolve(relative))
+                        && this.syncFile(relative)) {
+                    modified.add(relative);
+                }
+            }
+
+            // Compile changed and generated files.
+            this.taskCompile(modified);
+
+            // Archive files to ZIP.
+            this.taskArchive();
+        } catch (BuildError error) {
+            // Keep running, next change could fix the problem.
+            log.error("Build failed: ", error);
+            printBuildEnd(System.currentTimeMillis() - startTime, "FAILURE");
+            return false;
+        }
+
+        this.writeMetrics();
+        printBuildEnd(System.currentTimeMillis() - startTime, "SUCCESS");
+        return true;
+    }
+
+    /**
+     * Sets whether {@link #rebuild(Collection)} will be called after build.
+     *
+     * @param incremental true if project will be rebuilt incrementally
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    // Updates file in staging area, returns whether file should be compiled.
+    private boolean syncFile(Path relative) throws BuildError {
+        Path source = this.sourceRoot.resolve(relative);
+        Path staged = this.overlay.getUpper().resolve(relative);
+        try {
+            if (Files.isDirectory(source)) {
+                // Files in directory are reported separately.
+                return false;
+            }
+            // Forget output of previous build kept in memory.
+            this.overlay.discard(relative);
+            if (!Files.exists(source)) {
+                deleteTree(staged);
+                return false;
+            }
+            if (this.overlay.isLayered()) {
+                // Remove output of previous build, so source file is used.
+                Files.deleteIfExists(staged);
+            } else {
+                Files.createDirectories(staged.getParent());
+                Files.copy(source, staged, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (IOException e) {
+            throw new BuildError("Can't update file " + relative + "!", e);
+        }
+    }
+
+    static void deleteTree(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+                    throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc)
+                    throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void stageCopy(Path tempDirectory, long startTime) {
+        // Copy all files to temp directory.
+        BuildMetrics.Mark mark = this.metrics.startPhase();
+        try {
+            Overlay.copyTree(this.getProject().getSrc(), tempDirectory,
+                    this.getWalkPool());
+        } catch (Exception e) {
+            log.error("Can't copy source files to temporary folder!", e);
+            printBuildEnd(System.currentTimeMillis() - startTime, "FAILURE");
+
+            terminate();
+        }
+        this.metrics.endPhase("copy", mark);
+
+        // Set source in this instance of project to temp directory.
+        // This way all components will work as supposed because they
+        // are working relative to project's src path.
+        try {
+            Field srcField = this.project.getClass().getDeclaredField("src");
+            if (!srcField.isAccessible())
+                srcField.setAccessible(true);
+            srcField.set(this.project, tempDirectory);
+        } catch (Exception e) {
+            log.error("Internal error: Can't set project src to temp folder.",
+                    e);
+            printBuildEnd(System.currentTimeMillis() - startTime, "FAILURE");
+
+            // Terminate VM.
+            terminate();
+        }
+    }
+
+    private int taskRunTasks() throws BuildError {
+        BuildMetrics.Mark mark = this.metrics.startPhase();
+        int count = 0;
         String[] scripts = {"script.sh", "task.sh", "run.sh", "build.sh", "script.bat", "task.bat", "run.bat", "build.bat"};
 
         for (Path directory : this.fileFinder.getDirectories()) {
@@ -235,9 +459,20 @@ public class Assembler {
             }
             // We have script to run.
             if (possibleScript != null) {
-                runScript(possibleScript);
+                // Scripts can only see files on disk.
+                this.overlay.spill(this.overlay.relativize(directory));
+                try {
+                    // Scripts may change files, so run them in upper layer.
+                    Path upperDirectory = this.overlay.copyUp(directory);
+                    runScript(upperDirectory.resolve(possibleScript.getFileName()));
+                } catch (IOException e) {
+                    log.error("Can't copy directory {} to temporary folder!", directory, e);
+                }
+                count++;
             }
         }
+        this.metrics.endPhase("scripts", mark);
+        return count;
     }
 
     private void runScript(Path possibleScript) {
@@ -276,6 +511,23 @@ public class Assembler {
         }
     }
 
+    private void writeMetrics() {
+        Path report = Paths.get(this.project.getTarget() + BuildMetrics.REPORT_SUFFIX);
+        try {
+            this.metrics.write(report, this.project.getMetricsThreshold());
+        } catch (IOException e) {
+            log.warn("Can't write metrics report {}!", report, e);
+        }
+    }
+
+    private void printMemoryStats() {
+        List<Path> files = this.overlay.getMemoryFiles();
+        if (!files.isEmpty()) {
+            log.info("Staged {} files ({} KB) in memory.", files.size(),
+                    this.overlay.getMemoryUsed() / 1024);
+        }
+    }
+
     private void printBuildEnd(long elapsedTime, String status) {
         printSeparator();
         log.info("Build of project {} had finished!", project.getProjectName());
@@ -304,22 +556,33 @@ public class Assembler {
 
     private void findFiles() throws BuildError {
         log.info("Looking for files...");
+        BuildMetrics.Mark mark = this.metrics.startPhase();
         try {
-            int count = this.fileFinder.find(this.project.getSrc());
-            log.info("Found {} files!", count);
+            this.fileFinder.find(this.overlay.getLayers());
+            for (Path path : this.overlay.getMemoryFiles()) {
+                this.fileFinder.add(this.overlay.relativize(path), path);
+            }
+            log.info("Found {} files!", this.fileFinder.getPaths().size());
         } catch (IOException e) {
             throw new BuildError(e);
         }
+        this.metrics.endPhase("find", mark);
     }
 
-    private void taskGenerate() throws BuildError {
+    private List<Path> taskGenerate(Collection<Path> changed) throws BuildError {
         printSeparator();
-        int count = 0;
-        // Run all generators.
+        BuildMetrics.Mark phase = this.metrics.startPhase();
+        List<Path> generated = new ArrayList<Path>();
+        // Run all generators or only those affected by changed files.
         for (Generator g : this.generators) {
+            if (changed != null && !isAffected(g, changed)) {
+                continue;
+            }
             log.info("Running generator: {}", g.getClass().getSimpleName());
             // Request generator to generate file.
+            BuildMetrics.Mark mark = this.metrics.startComponent();
             OpenedFile file = g.generate();
+            this.metrics.endComponent(g, mark, 0, file == null ? 0 : file.getSize());
             // Check for null.
             if (file == null) {
                 log.warn("Generator {} generated null file!", g.getClass()
@@ -328,16 +591,32 @@ public class Assembler {
                 continue;
             }
             // Save generated file.
-            file.save();
-            // Increment generated files count.
-            count++;
+            generated.add(this.save(file));
         }
-        log.info("Totally generated {} files!", count);
+        log.info("Totally generated {} files!", generated.size());
+        this.metrics.endPhase("generate", phase);
+        return generated;
+    }
+
+    private static boolean isAffected(Generator generator,
+                                      Collection<Path> changed) {
+        for (Path relative : changed) {
+            if (generator.isAffectedBy(relative)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private void taskCompile() throws BuildError {
         printSeparator();
-        log.info("Compiling files...");
+        int threads = this.getThreads();
+        log.info("Compiling files using {} thread(s)...", threads);
+        BuildMetrics.Mark mark = this.metrics.startPhase();
+        this.startCompilers();
+        for (Map<Path, byte[]> files : this.variantFiles) {
+            files.clear();
+        }
         int count = 0;
         // For each extension compiler list.
         for (CompilerListByFileExtension list : this.compilerLists) {
@@ -346,17 +625,392 @@ public class Assembler {
             List<Path> matchingFiles = this.fileFinder.getPaths(list
                     .getFileExtension());
 
-            OpenedFile currentFile;
-            for (Path path : matchingFiles) {
-                count++;
-                currentFile = new OpenedFile(path);
-                for (Compiler c : list) {
-                    c.compile(currentFile);
+            if (threads > 1) {
+                this.compileParallel(list, matchingFiles, threads);
+            } else {
+                List<List<Compiler>> chains = this.getCompilerChains(list);
+                for (Path path : matchingFiles) {
+                    this.compileFile(path, list, chains);
                 }
-                currentFile.save();
             }
+            count += matchingFiles.size();
+        }
+        this.endCompilers();
+        this.metrics.endPhase("compile", mark);
+        log.info("Totally compiled {} files!", count);
+        printCacheStats();
+        printMemoryStats();
+    }
+
+    private void taskCompile(Collection<Path> files) throws BuildError {
+        printSeparator();
+        log.info("Compiling changed files...");
+        BuildMetrics.Mark mark = this.metrics.startPhase();
+        this.startCompilers();
+        int count = 0;
+        for (Path relative : files) {
+            // Forget files compiled for variants by previous build.
+            for (Map<Path, byte[]> compiled : this.variantFiles) {
+                compiled.remove(relative);
+            }
+            Path path = this.overlay.resolve(relative);
+            List<CompilerListByFileExtension> lists = this.getCompilerLists(path);
+            if (lists.isEmpty()) {
+                continue;
+            }
+            this.save(this.compileContents(path, lists));
+            count++;
         }
+        this.endCompilers();
+        this.metrics.endPhase("compile", mark);
         log.info("Totally compiled {} files!", count);
+        printCacheStats();
+        printMemoryStats();
+    }
+
+    private void startCompilers() throws BuildError {
+        if (this.getThreads() == 1) {
+            for (Compiler compiler : this.getCompilers()) {
+                compiler.onCompileStart();
+            }
+            return;
+        }
+        // Start compilers in pool, so they can prepare in parallel.
+        Future<Void> started = this.getPool().submit(new Callable<Void>() {
+            @Override
+            public Void call() throws BuildError {
+                for (Compiler compiler : getCompilers()) {
+                    compiler.onCompileStart();
+                }
+                return null;
+            }
+        });
+        try {
+            started.get();
+        } catch (InterruptedException e) {
+            throw new BuildError("Compilation was interrupted!", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BuildError) {
+                throw (BuildError) e.getCause();
+            }
+            throw new BuildError("Can't start compilers!", e.getCause());
+        }
+    }
+
+    // Returns files which compilers have to compile again after changes.
+    private Set<Path> getDependants(Collection<Path> changed) {
+        Set<Path> dependants = new LinkedHashSet<Path>();
+        for (Compiler compiler : this.getCompilers()) {
+            dependants.addAll(compiler.getDependants(changed));
+        }
+        return dependants;
+    }
+
+    private void endCompilers() throws BuildError {
+        for (Compiler compiler : this.getCompilers()) {
+            compiler.onCompileEnd();
+        }
+    }
+
+    // Returns configured compilers of main archive and of variants.
+    private Set<Compiler> getCompilers() {
+        Set<Compiler> compilers = new LinkedHashSet<Compiler>();
+        for (CompilerListByFileExtension list : this.compilerLists) {
+            compilers.addAll(list);
+        }
+        for (Map<CompilerListByFileExtension, CompilerListByFileExtension> lists : this.variantLists) {
+            for (CompilerListByFileExtension list : lists.values()) {
+                compilers.addAll(list);
+            }
+        }
+        return compilers;
+    }
+
+    private void compileParallel(CompilerListByFileExtension list,
+                                 List<Path> matchingFiles, int threads) throws BuildError {
+        // One set of compiler chains for each thread that can run at the same time.
+        BlockingQueue<List<List<Compiler>>> chains = new ArrayBlockingQueue<List<List<Compiler>>>(threads);
+        for (int i = 0; i < threads; i++) {
+            chains.add(this.createCompilerChains(list));
+        }
+
+        // Split work to small enough pieces so threads are kept busy.
+        int threshold = Math.max(1, matchingFiles.size() / (threads * 8));
+        try {
+            this.getPool().invoke(new CompileTask(this, list, matchingFiles,
+                    chains, threshold));
+        } catch (CompileTask.Failure failure) {
+            throw failure.getError();
+        }
+    }
+
+    private List<Compiler> createCompilerChain(CompilerListByFileExtension list)
+            throws BuildError {
+        List<Compiler> chain = new ArrayList<Compiler>(list.size());
+        for (Compiler compiler : list) {
+            if (compiler.getClass().isAnnotationPresent(ThreadSafe.class)) {
+                // Shared instance is safe to use.
+                chain.add(compiler);
+            } else {
+                // Create private instance for this thread. Settings of
+                // compiler may be changed by variant.
+                BuildStepCompile step = this.compileSteps.get(compiler);
+                Compiler copy = step.getCompiler();
+                copy.setAssembler(this);
+                copy.setSettings(compiler.getSettings());
+                copy.onInit();
+                chain.add(copy);
+            }
+        }
+        return chain;
+    }
+
+    /**
+     * Returns configured compiler chain of main archive followed by chain of
+     * each variant. Chain of variant is null when variant does not change the
+     * list, so chain of main archive is used.
+     */
+    private List<List<Compiler>> getCompilerChains(CompilerListByFileExtension list) {
+        List<List<Compiler>> chains = new ArrayList<List<Compiler>>(this.variants.length + 1);
+        chains.add(list);
+        for (Map<CompilerListByFileExtension, CompilerListByFileExtension> lists : this.variantLists) {
+            chains.add(lists.get(list));
+        }
+        return chains;
+    }
+
+    // Like getCompilerChains, but chains can be used by other thread.
+    private List<List<Compiler>> createCompilerChains(CompilerListByFileExtension list)
+            throws BuildError {
+        List<List<Compiler>> chains = new ArrayList<List<Compiler>>(this.variants.length + 1);
+        chains.add(this.createCompilerChain(list));
+        for (Map<CompilerListByFileExtension, CompilerListByFileExtension> lists : this.variantLists) {
+            CompilerListByFileExtension variantList = lists.get(list);
+            chains.add(variantList == null ? null : this.createCompilerChain(variantList));
+        }
+        return chains;
+    }
+
+    void compileFile(Path path, CompilerListByFileExtension list,
+                     List<List<Compiler>> chains) throws BuildError {
+        OpenedFile[] files = this.openFiles(path, Collections.singletonList(list));
+        this.runCompilers(files, chains);
+        this.save(files);
+    }
+
+    /**
+     * Opens file for main archive followed by copy of file for each variant
+     * which compiles it differently, copies of other variants are null.
+     * Image that some compiler decodes is decoded before it is copied, so
+     * compilers of all variants use the same decoded image.
+     */
+    private OpenedFile[] openFiles(Path path,
+                                   List<CompilerListByFileExtension> lists) throws BuildError {
+        OpenedFile[] files = new OpenedFile[this.variants.length + 1];
+        files[0] = this.overlay.open(path);
+        if (this.variants.length == 0) {
+            return files;
+        }
+
+        Path relative = this.overlay.relativize(path);
+        boolean decoded = !files[0].isImage();
+        for (int i = 0; i < this.variants.length; i++) {
+            // File was already compiled for variant by other compiler list.
+            byte[] compiled = this.variantFiles.get(i).get(relative);
+            if (compiled != null) {
+                files[i + 1] = new OpenedFile(path, compiled);
+            } else if (changesAny(this.variantLists.get(i), lists)) {
+                if (!decoded) {
+                    this.decode(files[0], lists);
+                    decoded = true;
+                }
+                files[i + 1] = files[0].copy();
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Decodes image once for compilers of main archive and of all variants.
+     * Size of PNG image is read from header first, so image is decoded only
+     * when some compiler needs it and only with smallest subsampling which
+     * compilers request.
+     */
+    private void decode(OpenedFile file, List<CompilerListByFileExtension> lists) {
+        try {
+            Dimension size = file.getPngSize();
+            if (size == null) {
+                // Size of other formats is not known without decoding.
+                file.getImage();
+                return;
+            }
+            int subsampling = 0;
+            for (CompilerListByFileExtension list : lists) {
+                subsampling = getImageSubsampling(file, size, list, subsampling);
+                for (Map<CompilerListByFileExtension, CompilerListByFileExtension> variantLists : this.variantLists) {
+                    CompilerListByFileExtension variantList = variantLists.get(list);
+                    if (variantList != null) {
+                        subsampling = getImageSubsampling(file, size, variantList, subsampling);
+                    }
+                }
+            }
+            if (subsampling > 0) {
+                file.decodeImage(subsampling);
+            }
+        } catch (BuildError e) {
+            // Compilers report images they can't read.
+        }
+    }
+
+    // Returns smallest of specified subsampling and subsampling requested by
+    // compilers in list, zero means that image is not decoded.
+    private static int getImageSubsampling(OpenedFile file, Dimension size,
+                                           List<Compiler> list, int subsampling) {
+        for (Compiler compiler : list) {
+            int requested = compiler.getImageSubsampling(file, size);
+            if (requested > 0 && (subsampling == 0 || requested < subsampling)) {
+                subsampling = requested;
+            }
+        }
+        return subsampling;
+    }
+
+    private static boolean changesAny(
+            Map<CompilerListByFileExtension, CompilerListByFileExtension> variantLists,
+            List<CompilerListByFileExtension> lists) {
+        for (CompilerListByFileExtension list : lists) {
+            if (variantLists.containsKey(list)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Runs chain of main archive or of variant on each opened file.
+    private void runCompilers(OpenedFile[] files, List<List<Compiler>> chains)
+            throws BuildError {
+        for (int i = 0; i < files.length; i++) {
+            if (files[i] != null) {
+                List<Compiler> chain = chains.get(i);
+                this.runCompilers(files[i], chain == null ? chains.get(0) : chain);
+            }
+        }
+    }
+
+    /**
+     * Saves file compiled for main archive and remembers files compiled for
+     * variants.
+     *
+     * @return path of saved file relative to resource pack root
+     */
+    private Path save(OpenedFile[] files) throws BuildError {
+        Path relative = this.save(files[0]);
+        for (int i = 0; i < this.variants.length; i++) {
+            byte[] contents = getVariantContents(files, i);
+            if (contents == null) {
+                this.variantFiles.get(i).remove(relative);
+            } else {
+                this.variantFiles.get(i).put(relative, contents);
+            }
+        }
+        return relative;
+    }
+
+    // Returns contents of file compiled for variant or null when they are
+    // same as contents of file compiled for main archive.
+    private static byte[] getVariantContents(OpenedFile[] files, int variant)
+            throws BuildError {
+        OpenedFile file = files[variant + 1];
+        if (file == null || !file.isModified() && !files[0].isModified()) {
+            return null;
+        }
+        byte[] contents = file.getContents();
+        return Arrays.equals(contents, files[0].getContents()) ? null : contents;
+    }
+
+    /**
+     * Saves file to staging area and updates found files, so they don't
+     * have to be found again.
+     *
+     * @return path of saved file relative to resource pack root
+     */
+    private Path save(OpenedFile file) throws BuildError {
+        Path saved = this.overlay.save(file);
+        Path relative = this.overlay.relativize(saved);
+        this.fileFinder.add(relative, saved);
+        return relative;
+    }
+
+    private void runCompilers(OpenedFile file, List<Compiler> chain)
+            throws BuildError {
+        // Try to use output from previous builds.
+        String key = null;
+        ByteBuffer input = null;
+        if (this.cache != null && this.cache.isCacheable(chain)) {
+            input = file.getBuffer();
+            key = this.cache.key(this.overlay.relativize(file.getPath()),
+                    input.duplicate(), chain, this.getCharset());
+            byte[] cached = this.cache.get(key);
+            if (cached == CompileCache.UNCHANGED) {
+                // Keep file as it is, so it is not saved again.
+                return;
+            }
+            if (cached != null) {
+                file.setContents(cached);
+                return;
+            }
+        }
+
+        for (Compiler c : chain) {
+            if (this.metrics.isEnabled()) {
+                BuildMetrics.Mark mark = this.metrics.startComponent();
+                long bytesIn = file.getSize();
+                c.compile(file);
+                this.metrics.endComponent(c, mark, bytesIn, file.getSize());
+            } else {
+                c.compile(file);
+            }
+        }
+
+        if (key != null) {
+            // Don't store contents of files which chain did not change.
+            if (!file.isModified() || file.getBuffer().equals(input)) {
+                this.cache.put(key, CompileCache.UNCHANGED);
+            } else {
+                this.cache.put(key, file.getContents());
+            }
+        }
+    }
+
+    private void printCacheStats() {
+        if (this.cache != null) {
+            log.info("Compile cache: {} hits, {} misses.", this.cache.getHits(),
+                    this.cache.getMisses());
+        }
+    }
+
+    private ForkJoinPool getPool() {
+        if (this.pool == null) {
+            this.pool = new ForkJoinPool(this.getThreads());
+        }
+        return this.pool;
+    }
+
+    /**
+     * Returns pool used to walk and copy file trees in parallel or null
+     * when only one thread is used.
+     */
+    private ForkJoinPool getWalkPool() {
+        return this.getThreads() > 1 ? this.getPool() : null;
+    }
+
+    private int getThreads() {
+        int threads = this.project.getThreads();
+        // Zero or less means use all available processors.
+        if (threads <= 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return threads;
     }
 
     private void taskAssembly() {
@@ -369,28 +1023,339 @@ public class Assembler {
         log.info("Archiving assebled files to zip file...");
         log.info("File name: {}", this.project.getTarget().toString());
 
+        BuildMetrics.Mark mark = this.metrics.startPhase();
         int count = 0;
-        ZipArchive zipper = new ZipArchive(this.project.getSrc()
-                .toAbsolutePath(), this.project.getTarget().toFile(),
-                this.project.getCompressionLevel());
         // Add files to zip.
+        ZipArchive[] zippers = this.createArchives();
+        boolean closed = false;
         try {
-            for (Path path : this.fileFinder.getPaths()) {
+            for (Path path : this.fileFinder.getPathsByName()) {
                 if (!isFiltered(path)) {
-                    zipper.addFile(path);
+                    addFile(zippers, path, this.getStagedContents(path));
                     count++;
                 }
             }
+            this.closeArchives(zippers);
+            closed = true;
         } catch (IOException e) {
             throw new BuildError("Can't build zip file!", e);
+        } finally {
+            // Keep archives of previous build when this one failed.
+            if (!closed) {
+                abortArchives(zippers);
+            }
         }
-        zipper.close();
+        this.metrics.endPhase("archive", mark);
         log.info("Created archive with {} files!", count);
     }
 
+    private void taskCompileAndArchive() throws BuildError {
+        printSeparator();
+        final int threads = this.getThreads();
+        log.info("Compiling and archiving files using {} thread(s)...", threads);
+        log.info("File name: {}", this.project.getTarget().toString());
+
+        // Compiler chains for each thread.
+        final Map<CompilerListByFileExtension, BlockingQueue<List<List<Compiler>>>> chains =
+                new IdentityHashMap<CompilerListByFileExtension, BlockingQueue<List<List<Compiler>>>>();
+        if (threads > 1) {
+            for (CompilerListByFileExtension list : this.compilerLists) {
+                BlockingQueue<List<List<Compiler>>> queue = new ArrayBlockingQueue<List<List<Compiler>>>(threads);
+                for (int i = 0; i < threads; i++) {
+                    queue.add(this.createCompilerChains(list));
+                }
+                chains.put(list, queue);
+            }
+        }
+
+        // Entries are written in order. Only this many files are compiled
+        // ahead of the writer, so memory usage stays bounded.
+        int window = threads * 4;
+        Deque<PendingEntry> pending = new ArrayDeque<PendingEntry>(window + 1);
+        BuildMetrics.Mark mark = this.metrics.startPhase();
+        this.startCompilers();
+
+        int count = 0;
+        int compiled = 0;
+        ZipArchive[] zippers = this.createArchives();
+        boolean closed = false;
+        try {
+            for (final Path path : this.fileFinder.getPathsByName()) {
+                if (isFiltered(path)) {
+                    continue;
+                }
+                count++;
+
+                final List<CompilerListByFileExtension> lists = this.getCompilerLists(path);
+                if (!lists.isEmpty()) {
+                    compiled++;
+                }
+
+                if (threads == 1) {
+                    byte[][] contents = lists.isEmpty() ? null
+                            : getArchiveContents(this.compileContents(path, lists));
+                    addFile(zippers, path, contents);
+                    continue;
+                }
+
+                Future<byte[][]> contents = null;
+                if (!lists.isEmpty()) {
+                    contents = this.getPool().submit(new Callable<byte[][]>() {
+                        @Override
+                        public byte[][] call() throws Exception {
+                            OpenedFile[] files = openFiles(path, lists);
+                            for (CompilerListByFileExtension list : lists) {
+                                List<List<Compiler>> chain = chains.get(list).take();
+                                try {
+                                    runCompilers(files, chain);
+                                } finally {
+                                    chains.get(list).add(chain);
+                                }
+                            }
+                            return getArchiveContents(files);
+                        }
+                    });
+                }
+                pending.add(new PendingEntry(path, contents));
+
+                if (pending.size() > window) {
+                    pending.poll().writeTo(zippers);
+                }
+            }
+
+            // Write remaining entries.
+            while (!pending.isEmpty()) {
+                pending.poll().writeTo(zippers);
+            }
+            this.endCompilers();
+            this.closeArchives(zippers);
+            closed = true;
+        } catch (IOException e) {
+            throw new BuildError("Can't build zip file!", e);
+        } finally {
+            // Do not leave compilations running when the build failed.
+            for (PendingEntry entry : pending) {
+                entry.cancel();
+            }
+            // Keep archives of previous build when this one failed.
+            if (!closed) {
+                abortArchives(zippers);
+            }
+        }
+        this.metrics.endPhase("compileAndArchive", mark);
+        log.info("Compiled {} files!", compiled);
+        printCacheStats();
+        log.info("Created archive with {} files!", count);
+    }
+
+    // Returns main target followed by targets of variants.
+    private List<Path> getTargets() {
+        List<Path> targets = new ArrayList<Path>(this.variants.length + 1);
+        targets.add(this.project.getTarget());
+        for (Variant variant : this.variants) {
+            targets.add(variant.getTarget());
+        }
+        return targets;
+    }
+
+    // Creates main archive followed by archive of each variant.
+    private ZipArchive[] createArchives() throws BuildError {
+        List<Path> targets = this.getTargets();
+        ZipArchive[] zippers = new ZipArchive[targets.size()];
+        for (int i = 0; i < zippers.length; i++) {
+            if (i > 0) {
+                log.info("Variant file name: {}", targets.get(i));
+            }
+            try {
+                zippers[i] = this.createArchive(targets.get(i));
+            } catch (IOException e) {
+                abortArchives(zippers);
+                throw new BuildError("Can't create zip file " + targets.get(i) + "!", e);
+            } catch (BuildError e) {
+                abortArchives(zippers);
+                throw e;
+            }
+        }
+        return zippers;
+    }
+
+    // Discards unfinished archives, archives of previous build are kept.
+    private static void abortArchives(ZipArchive[] zippers) {
+        for (ZipArchive zipper : zippers) {
+            if (zipper != null) {
+                zipper.abort();
+            }
+        }
+    }
+
+    private void closeArchives(ZipArchive[] zippers) throws IOException {
+        for (ZipArchive zipper : zippers) {
+            zipper.close();
+        }
+        log.info("Archive SHA-1: {}", zippers[0].getSha1());
+        for (int i = 1; i < zippers.length; i++) {
+            log.info("Variant {} SHA-1: {}", this.variants[i - 1].getTarget(),
+                    zippers[i].getSha1());
+        }
+    }
+
+    private ZipArchive createArchive(Path target) throws IOException, BuildError {
+        // Check policies before archive is opened, so archive of previous
+        // build is not replaced when they are invalid.
+        try {
+            ZipArchive.checkCompressionPolicies(this.project.getCompression(),
+                    this.project.getCompressionLevel());
+        } catch (IllegalArgumentException e) {
+            throw new BuildError("Invalid compression policy!", e);
+        }
+        ZipArchive zipper = new ZipArchive(this.overlay, target.toFile(),
+                this.project.getCompressionLevel());
+        zipper.setCompressionPolicies(this.project.getCompression());
+        zipper.setDeduplicate(this.project.isDeduplicate());
+        if (this.project.getArchiveWindow() > 0) {
+            log.info("Compressing up to {} files in parallel.",
+                    this.project.getArchiveWindow());
+            zipper.setParallel(this.getPool(), this.project.getArchiveWindow());
+        }
+        return zipper;
+    }
+
+    /**
+     * Returns contents of file compiled for main archive followed by contents
+     * of file compiled for each variant. Contents are null when compilers did
+     * not change the file, so archive reads the file itself, and contents of
+     * variant are null when they are same as contents for main archive.
+     */
+    private static byte[][] getArchiveContents(OpenedFile[] files)
+            throws BuildError {
+        byte[][] contents = new byte[files.length][];
+        if (files[0].isModified()) {
+            contents[0] = files[0].getContents();
+        }
+        for (int i = 1; i < files.length; i++) {
+            contents[i] = getVariantContents(files, i - 1);
+        }
+        return contents;
+    }
+
+    // Like getArchiveContents, but for file staged before archiving.
+    private byte[][] getStagedContents(Path path) {
+        if (this.variants.length == 0) {
+            return null;
+        }
+        Path relative = this.overlay.relativize(path);
+        byte[][] contents = new byte[this.variants.length + 1][];
+        for (int i = 0; i < this.variants.length; i++) {
+            contents[i + 1] = this.variantFiles.get(i).get(relative);
+        }
+        return contents;
+    }
+
+    /**
+     * Writes file to main archive and to archive of each variant.
+     *
+     * @param contents contents returned by {@link #getArchiveContents(OpenedFile[])}
+     *                 or null when file was not compiled
+     */
+    private static void addFile(ZipArchive[] zippers, Path path,
+                                byte[][] contents) throws IOException {
+        for (int i = 0; i < zippers.length; i++) {
+            byte[] file = null;
+            if (contents != null) {
+                file = contents[i] != null ? contents[i] : contents[0];
+            }
+            if (file == null) {
+                zippers[i].addFile(path);
+            } else {
+                zippers[i].addFile(path, file);
+            }
+        }
+    }
+
+    private OpenedFile[] compileContents(Path path,
+                                         List<CompilerListByFileExtension> lists) throws BuildError {
+        OpenedFile[] files = this.openFiles(path, lists);
+        for (CompilerListByFileExtension list : lists) {
+            this.runCompilers(files, this.getCompilerChains(list));
+        }
+        return files;
+    }
+
+    private List<CompilerListByFileExtension> getCompilerLists(Path path) {
+        List<CompilerListByFileExtension> lists = new ArrayList<CompilerListByFileExtension>(1);
+        for (CompilerListByFileExtension list : this.compilerLists) {
+            if (path.toString().endsWith(list.getFileExtension())) {
+                lists.add(list);
+            }
+        }
+        return lists;
+    }
+
+    /**
+     * Represents file waiting to be written to archives in pipeline mode.
+     */
+    private static class PendingEntry {
+        private final Path path;
+        // Contents returned by getArchiveContents or null when file is not
+        // compiled.
+        private final Future<byte[][]> contents;
+
+        PendingEntry(Path path, Future<byte[][]> contents) {
+            this.path = path;
+            this.contents = contents;
+        }
+
+        void writeTo(ZipArchive[] zippers) throws BuildError, IOException {
+            if (this.contents == null) {
+                addFile(zippers, this.path, null);
+                return;
+            }
+
+            try {
+                addFile(zippers, this.path, this.contents.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new BuildError("Compilation was interrupted!", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof BuildError) {
+                    throw (BuildError) e.getCause();
+                }
+                throw new BuildError("Can't compile file " + this.path + "!", e.getCause());
+            }
+        }
+
+        void cancel() {
+            if (this.contents != null) {
+                this.contents.cancel(false);
+            }
+        }
+    }
+
     private boolean isFiltered(Path path) {
+        return this.isFiltered(this.overlay.relativize(path).toString(),
+                path.toString());
+    }
+
+    /**
+     * Returns whether source file is not part of the build.
+     *
+     * @param relative path relative to source directory
+     * @return true if file is filtered out
+     */
+    boolean isExcluded(Path relative) {
+        return this.isFiltered(relative.toString(),
+                this.sourceRoot.resolve(relative).toString());
+    }
+
+    private boolean isFiltered(String relative, String path) {
+        // Never archive the archives and files stored next to them.
+        for (String targetName : this.targetNames) {
+            if (relative.startsWith(targetName)) {
+                return true;
+            }
+        }
         for (String endFilter : this.project.getFilters()) {
-            if (path.toString().endsWith(endFilter)) {
+            if (path.endsWith(endFilter)) {
                 return true;
             }
         }
@@ -402,9 +1367,12 @@ public class Assembler {
         // If-else for different build steps.
         if (buildStep instanceof BuildStepCompile) {
             // Add compile type step.
-            this.addCompileStep(((BuildStepCompile) buildStep).getCompiler(),
-                    ((BuildStepCompile) buildStep).getFileTypes()[0],
-                    ((BuildStepCompile) buildStep).getSettings());
+            BuildStepCompile compileStep = (BuildStepCompile) buildStep;
+            Compiler compiler = compileStep.getCompiler();
+            this.addCompileStep(compiler, compileStep.getFileTypes()[0],
+                    compileStep.getSettings());
+            // Remember step, so we can create more instances of compiler.
+            this.compileSteps.put(compiler, compileStep);
         } else if (buildStep instanceof BuildStepGenerate) {
             // Add generate type step.
             this.addGenerateStep(
@@ -420,8 +1388,13 @@ public class Assembler {
     private void addCompileStep(Compiler compiler, String fileExtension,
                                 Setting[] settings) throws InvalidSettingsError {
         // Acquire list for this file extension.
-        CompilerListByFileExtension compilerList = getOrCreateCompilerList(fileExtension);
+        this.addCompileStep(compiler, getOrCreateCompilerList(fileExtension),
+                settings);
+    }
 
+    private void addCompileStep(Compiler compiler,
+                                CompilerListByFileExtension compilerList,
+                                Setting[] settings) throws InvalidSettingsError {
         // Setup compiler.
         compiler.setAssembler(this);
         compiler.setSettings(settings);
@@ -431,6 +1404,62 @@ public class Assembler {
         compilerList.add(compiler);
     }
 
+    /**
+     * Creates compiler lists of variant. Compilers with settings replaced by
+     * variant are created again, other compilers are shared with main
+     * archive.
+     *
+     * @return compiler lists of variant by compiler lists of main archive
+     */
+    private Map<CompilerListByFileExtension, CompilerListByFileExtension> createVariantLists(
+            Variant variant) throws InvalidSettingsError, InvalidComponentError {
+        Map<CompilerListByFileExtension, CompilerListByFileExtension> lists =
+                new IdentityHashMap<CompilerListByFileExtension, CompilerListByFileExtension>();
+        for (CompilerListByFileExtension list : this.compilerLists) {
+            CompilerListByFileExtension variantList = new CompilerListByFileExtension(
+                    list.getFileExtension());
+            for (Compiler compiler : list) {
+                Setting[] settings = replaceSettings(compiler.getSettings(),
+                        variant.getSettings());
+                if (settings == null) {
+                    variantList.add(compiler);
+                    continue;
+                }
+                BuildStepCompile step = this.compileSteps.get(compiler);
+                Compiler copy = step.getCompiler();
+                this.addCompileStep(copy, variantList, settings);
+                this.compileSteps.put(copy, step);
+                lists.put(list, variantList);
+            }
+        }
+        if (lists.isEmpty()) {
+            log.warn("Variant {} does not change settings of any compiler!",
+                    variant.getTarget());
+        }
+        return lists;
+    }
+
+    // Returns settings with values of replacements with the same key or null
+    // when no setting is replaced.
+    private static Setting[] replaceSettings(Setting[] settings,
+                                             Setting[] replacements) {
+        if (replacements == null) {
+            return null;
+        }
+        Setting[] replaced = null;
+        for (int i = 0; i < settings.length; i++) {
+            for (Setting replacement : replacements) {
+                if (replacement.getKey().equals(settings[i].getKey())) {
+                    if (replaced == null) {
+                        replaced = settings.clone();
+                    }
+                    replaced[i] = replacement;
+                }
+            }
+        }
+        return replaced;
+    }
+
     private void addGenerateStep(Generator generator, Setting[] settings)
             throws InvalidSettingsError {
         // Set up generator.
@@ -471,4 +1500,81 @@ public class Assembler {
     public Path getSourcePath() {
         return this.project.getSrc();
     }
+
+    /**
+     * Returns source directory specified in build descriptor. Unlike
+     * {@link #getSourcePath()}, this is never the temporary directory.
+     *
+     * @return source directory or null if build was not started yet
+     */
+    public Path getSourceRoot() {
+        return this.sourceRoot;
+    }
+
+    /**
+     * Resolves path relative to resource pack root. When build is running,
+     * files written by the build are preferred over source files.
+     *
+     * @param relative relative path
+     * @return resolved path
+     */
+    public Path resolvePath(String relative) {
+        if (this.overlay == null) {
+            return this.getSourcePath().resolve(relative);
+        }
+        return this.overlay.resolve(relative);
+    }
+
+    /**
+     * Returns path relative to resource pack root.
+     *
+     * @param path path of file in resource pack
+     * @return relative path
+     */
+    public Path relativizePath(Path path) {
+        if (this.overlay == null) {
+            return this.getSourcePath().toAbsolutePath().relativize(
+                    path.toAbsolutePath());
+        }
+        return this.overlay.relativize(path);
+    }
+
+    /**
+     * Returns whether file exists. Unlike checking path returned by
+     * {@link #resolvePath(String)}, this also finds files kept in memory.
+     *
+     * @param relative relative path
+     * @return true if file exists
+     */
+    public boolean exists(String relative) {
+        if (this.overlay == null) {
+            return Files.exists(this.getSourcePath().resolve(relative));
+        }
+        return this.overlay.exists(Paths.get(relative));
+    }
+
+    /**
+     * Returns relative paths of found files in specified directory.
+     *
+     * @param directory directory relative to resource pack root
+     * @return relative paths with '/' as separator
+     */
+    public List<String> getFileNames(String directory) {
+        return this.fileFinder.getNamesIn(directory);
+    }
+
+    /**
+     * Opens file specified by path relative to resource pack root. When build
+     * is running, files written by the build are preferred over source files.
+     *
+     * @param relative relative path
+     * @return opened file
+     * @throws BuildError when file can't be opened
+     */
+    public OpenedFile open(String relative) throws BuildError {
+        if (this.overlay == null) {
+            return new OpenedFile(this.resolvePath(relative));
+        }
+        return this.overlay.open(this.resolvePath(relative));
+    }
 }
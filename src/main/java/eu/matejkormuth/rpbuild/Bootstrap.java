@@ -31,6 +31,7 @@ package eu.matejkormuth.rpbuild;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -54,7 +55,13 @@ public class Bootstrap {
 	public static void main(String[] args) {
 		printInfo();
 		// In case our client know how to use application.
-		if (args.length == 1) {
+		if (args.length >= 1 && args[0].equalsIgnoreCase("watch")) {
+			watch(args.length > 1 ? args[1] : findDescriptor());
+		} else if (args.length >= 1 && args[0].equalsIgnoreCase("synth")) {
+			synth(args);
+		} else if (args.length >= 1 && args[0].equalsIgnoreCase("serve")) {
+			serve(args.length > 1 ? args[1] : findDescriptor());
+		} else if (args.length == 1) {
 			if (args[0].equalsIgnoreCase("create")) {
 				createDefault();
 			} else {
@@ -62,7 +69,7 @@ public class Bootstrap {
 			}
 		} else {
 			// Let's find file for him!
-			findDescriptor();
+			runAssembler(findDescriptor());
 		}
 	}
 
@@ -108,7 +115,7 @@ public class Bootstrap {
 		}
 	}
 
-	private static void findDescriptor() {
+	private static String findDescriptor() {
 		String descriptorFile = null;
 		int matchesFound = 0;
 		for (String fileName : new File(".").list()) {
@@ -129,7 +136,7 @@ public class Bootstrap {
 				System.out.println("Build descriptor not explicitly specified. Using file '"
 								+ descriptorFile
 								+ "' as build descriptor for this build.");
-				runAssembler(descriptorFile);
+				return descriptorFile;
 			} else {
 				System.out.println("More then one file matches conditions to be a "
 								+ "build file in working directory. Please specify build descriptor explicitly!");
@@ -141,6 +148,7 @@ public class Bootstrap {
 			printUsage();
 			System.exit(1);
 		}
+		return null;
 	}
 
 	/**
@@ -150,14 +158,126 @@ public class Bootstrap {
 	 *            build descriptor
 	 */
 	private static void runAssembler(String file) {
+		Project options = loadProject(file);
+		if (options == null) {
+			return;
+		}
+
+		try {
+			new Assembler(options).build();
+		} catch (Exception e) {
+			System.out.println("Can't initialize");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Builds project with specified file as build descriptor and then
+	 * rebuilds it each time source files change.
+	 * 
+	 * @param file
+	 *            build descriptor
+	 */
+	private static void watch(String file) {
+		Project options = loadProject(file);
+		if (options == null) {
+			return;
+		}
+
+		try {
+			Assembler assembler = new Assembler(options);
+			assembler.setIncremental(true);
+			assembler.build();
+			new Watcher(assembler).watch();
+		} catch (Exception e) {
+			System.out.println("Can't watch source files");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Serves target archive of project with specified file as build
+	 * descriptor over HTTP. Project is not built, archives built later by
+	 * other rpbuild processes are served as soon as they are finished.
+	 * 
+	 * @param file
+	 *            build descriptor
+	 */
+	private static void serve(String file) {
+		Project options = loadProject(file);
+		if (options == null) {
+			return;
+		}
+
+		try {
+			PackServer server = new PackServer(options.getTarget(),
+					new InetSocketAddress(options.getServerAddress(),
+							options.getServerPort()),
+					options.getServerThreads());
+			server.start();
+			server.run();
+		} catch (Exception e) {
+			System.out.println("Can't serve target archive");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes synthesized resource pack to folder specified by first argument
+	 * after command. Next optional arguments are seed, amount of models,
+	 * textures, sounds and texture resolution.
+	 * 
+	 * @param args
+	 *            command line arguments
+	 */
+	private static void synth(String[] args) {
+		if (args.length < 2) {
+			printUsage();
+			System.exit(1);
+		}
+
+		try {
+			PackSynthesizer synthesizer = new PackSynthesizer(
+					args.length > 2 ? Long.parseLong(args[2]) : 0);
+			if (args.length > 3) {
+				synthesizer.setModels(Integer.parseInt(args[3]));
+			}
+			if (args.length > 4) {
+				synthesizer.setTextures(Integer.parseInt(args[4]));
+			}
+			if (args.length > 5) {
+				synthesizer.setSounds(Integer.parseInt(args[5]));
+			}
+			if (args.length > 6) {
+				synthesizer.setResolution(Integer.parseInt(args[6]));
+			}
+
+			int count = synthesizer.synthesize(new File(args[1]).toPath());
+			System.out.println("Written " + count + " files to " + args[1] + ".");
+		} catch (NumberFormatException e) {
+			printUsage();
+			System.exit(1);
+		} catch (Exception e) {
+			System.out.println("Can't synthesize resource pack");
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Loads build descriptor from specified file.
+	 * 
+	 * @param file
+	 *            build descriptor
+	 * @return loaded project or null when it can't be loaded
+	 */
+	private static Project loadProject(String file) {
 		if (file.endsWith(".xml")) {
 			try {
 				JAXBContext context = JAXBContext.newInstance(XmlProject.class,
 						XmlBuildStepCompile.class, XmlBuildStepGenerate.class);
 				Object projectObj = context.createUnmarshaller().unmarshal(
 						new File(file));
-				Project options = (Project) projectObj;
-				new Assembler(options).build();
+				return (Project) projectObj;
 			} catch (Exception e) {
 				System.out.println("Can't initialize");
 				e.printStackTrace();
@@ -168,6 +288,7 @@ public class Bootstrap {
 							+ "which provides more options and more control over your build.");
 			System.out.println("For more information please visit github page: https://github.com/dobrakmato/rpbuild#xml-configuration");
 		}
+		return null;
 	}
 
 	/**
@@ -175,6 +296,9 @@ public class Bootstrap {
 	 */
 	private static void printUsage() {
 		System.out.println("Usage: rpbuild.jar <buildFile>");
+		System.out.println("       rpbuild.jar watch [buildFile]");
+		System.out.println("       rpbuild.jar serve [buildFile]");
+		System.out.println("       rpbuild.jar synth <directory> [seed] [models] [textures] [sounds] [resolution]");
 	}
 	
 	private static void printInfo() {
@@ -0,0 +1,400 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects wall time, CPU time and allocated memory of build phases and
+ * components and writes them to JSON report.
+ * <p>
+ * Phases are measured for all threads of the application, because their work
+ * is done by worker threads. Threads that finished during phase are not
+ * counted. Components are measured on the thread that runs them.
+ */
+public class BuildMetrics {
+	private static final Logger log = LoggerFactory.getLogger(BuildMetrics.class);
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Suffix of report file stored next to the archive.
+	 */
+	public static final String REPORT_SUFFIX = ".metrics.json";
+	// Phases faster than this are never reported as regressed.
+	private static final long MIN_REGRESSION_NANOS = 50 * 1000 * 1000;
+
+	private final boolean enabled;
+	private final ThreadMXBean threads;
+	// Bean that measures allocations or null if it is not supported.
+	private final com.sun.management.ThreadMXBean allocations;
+	private final Map<String, Stats> phases;
+	private final Map<String, Stats> components;
+	private long startTime;
+
+	/**
+	 * Creates new metrics.
+	 * 
+	 * @param enabled
+	 *            whether metrics should be collected
+	 */
+	public BuildMetrics(boolean enabled) {
+		this.enabled = enabled;
+		this.threads = ManagementFactory.getThreadMXBean();
+		if (enabled && this.threads.isThreadCpuTimeSupported()
+				&& !this.threads.isThreadCpuTimeEnabled()) {
+			this.threads.setThreadCpuTimeEnabled(true);
+		}
+
+		com.sun.management.ThreadMXBean allocations = null;
+		if (this.threads instanceof com.sun.management.ThreadMXBean) {
+			allocations = (com.sun.management.ThreadMXBean) this.threads;
+			if (!allocations.isThreadAllocatedMemorySupported()) {
+				allocations = null;
+			} else if (enabled && !allocations.isThreadAllocatedMemoryEnabled()) {
+				allocations.setThreadAllocatedMemoryEnabled(true);
+			}
+		}
+		this.allocations = allocations;
+
+		this.phases = new LinkedHashMap<String, Stats>();
+		this.components = new TreeMap<String, Stats>();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Removes all collected data. Called when new build starts.
+	 */
+	public synchronized void reset() {
+		this.phases.clear();
+		this.components.clear();
+		this.startTime = System.nanoTime();
+	}
+
+	/**
+	 * Marks start of phase.
+	 * 
+	 * @return mark that should be passed to {@link #endPhase(String, Mark)}
+	 *         or null if metrics are disabled
+	 */
+	public Mark startPhase() {
+		if (!this.enabled) {
+			return null;
+		}
+		long[] ids = this.threads.getAllThreadIds();
+		return new Mark(System.nanoTime(), this.sum(this.cpuTimes(ids)),
+				this.sum(this.allocatedBytes(ids)));
+	}
+
+	/**
+	 * Records phase that started at specified mark. Time of phases with same
+	 * name is added together.
+	 * 
+	 * @param name
+	 *            name of phase
+	 * @param mark
+	 *            mark returned by {@link #startPhase()}
+	 */
+	public void endPhase(String name, Mark mark) {
+		if (mark == null) {
+			return;
+		}
+		Mark end = this.startPhase();
+		this.getStats(this.phases, name, null).add(end.wall - mark.wall,
+				end.cpu - mark.cpu, end.allocated - mark.allocated, 0, 0);
+	}
+
+	/**
+	 * Marks start of component run on current thread.
+	 * 
+	 * @return mark that should be passed to
+	 *         {@link #endComponent(Component, Mark, long, long)} or null if
+	 *         metrics are disabled
+	 */
+	public Mark startComponent() {
+		if (!this.enabled) {
+			return null;
+		}
+		long cpu = this.threads.isCurrentThreadCpuTimeSupported() ? this.threads
+				.getCurrentThreadCpuTime() : 0;
+		long allocated = this.allocations == null ? 0 : this.allocations
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+		return new Mark(System.nanoTime(), cpu, allocated);
+	}
+
+	/**
+	 * Records one run of component on one file.
+	 * 
+	 * @param component
+	 *            compiler or generator
+	 * @param mark
+	 *            mark returned by {@link #startComponent()}
+	 * @param bytesIn
+	 *            size of file before compilation
+	 * @param bytesOut
+	 *            size of file after compilation or size of generated file
+	 */
+	public void endComponent(Component component, Mark mark, long bytesIn,
+			long bytesOut) {
+		if (mark == null) {
+			return;
+		}
+		Mark end = this.startComponent();
+		String kind = component instanceof Generator ? "generator"
+				: "compiler";
+		this.getStats(this.components, component.getClass().getName(), kind)
+				.add(end.wall - mark.wall, end.cpu - mark.cpu,
+						end.allocated - mark.allocated, bytesIn, bytesOut);
+	}
+
+	private synchronized Stats getStats(Map<String, Stats> map, String name,
+			String kind) {
+		Stats stats = map.get(name);
+		if (stats == null) {
+			stats = new Stats(kind);
+			map.put(name, stats);
+		}
+		return stats;
+	}
+
+	private long[] cpuTimes(long[] ids) {
+		long[] times = new long[ids.length];
+		if (this.threads.isThreadCpuTimeSupported()) {
+			for (int i = 0; i < ids.length; i++) {
+				times[i] = this.threads.getThreadCpuTime(ids[i]);
+			}
+		}
+		return times;
+	}
+
+	private long[] allocatedBytes(long[] ids) {
+		if (this.allocations == null) {
+			return new long[0];
+		}
+		return this.allocations.getThreadAllocatedBytes(ids);
+	}
+
+	private long sum(long[] values) {
+		long sum = 0;
+		for (long value : values) {
+			// Threads that ended meanwhile report -1.
+			if (value > 0) {
+				sum += value;
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Logs collected metrics, compares them with previous report and writes
+	 * new report.
+	 * 
+	 * @param report
+	 *            path of report file
+	 * @param threshold
+	 *            percentage of wall time by which phase must be slower than
+	 *            in previous report to be reported as regressed
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public synchronized void write(Path report, int threshold)
+			throws IOException {
+		if (!this.enabled) {
+			return;
+		}
+
+		for (Map.Entry<String, Stats> phase : this.phases.entrySet()) {
+			Stats stats = phase.getValue();
+			log.info("Phase {}: {} ms, {} ms CPU, {} KB allocated.",
+					phase.getKey(), millis(stats.wall), millis(stats.cpu),
+					stats.allocated / 1024);
+		}
+
+		JSONObject json = this.toJson();
+		if (Files.exists(report)) {
+			try {
+				this.compare(new JSONObject(new String(Files.readAllBytes(report),
+						UTF_8)), threshold);
+			} catch (JSONException e) {
+				log.warn("Can't read previous metrics report {}!", report, e);
+			}
+		}
+		Files.write(report, json.toString(2).getBytes(UTF_8));
+		log.info("Metrics report written to {}.", report);
+	}
+
+	private void compare(JSONObject previous, int threshold) {
+		JSONObject previousPhases = previous.optJSONObject("phases");
+		if (previousPhases == null) {
+			return;
+		}
+
+		int regressions = 0;
+		for (Map.Entry<String, Stats> phase : this.phases.entrySet()) {
+			JSONObject old = previousPhases.optJSONObject(phase.getKey());
+			if (old == null) {
+				continue;
+			}
+			long oldWall = old.optLong("wallNanos");
+			long wall = phase.getValue().wall;
+			if (wall - oldWall > MIN_REGRESSION_NANOS
+					&& wall * 100 > oldWall * (100 + threshold)) {
+				log.warn("Phase {} regressed: {} ms -> {} ms (+{}%)!",
+						phase.getKey(), millis(oldWall), millis(wall),
+						oldWall == 0 ? "inf" : (wall - oldWall) * 100 / oldWall);
+				regressions++;
+			}
+		}
+		if (regressions == 0) {
+			log.info("No phase is more than {}% slower than in previous build.",
+					threshold);
+		}
+	}
+
+	private JSONObject toJson() {
+		JSONObject json = new JSONObject();
+		json.put("timestamp", System.currentTimeMillis());
+		json.put("wallNanos", System.nanoTime() - this.startTime);
+
+		JSONObject phases = new JSONObject();
+		for (Map.Entry<String, Stats> phase : this.phases.entrySet()) {
+			phases.put(phase.getKey(), phase.getValue().toJson(false));
+		}
+		json.put("phases", phases);
+
+		JSONObject components = new JSONObject();
+		for (Map.Entry<String, Stats> component : this.components.entrySet()) {
+			components.put(component.getKey(), component.getValue()
+					.toJson(true));
+		}
+		json.put("components", components);
+		return json;
+	}
+
+	private static long millis(long nanos) {
+		return nanos / 1000000;
+	}
+
+	/**
+	 * Represents point in time at which measurement started.
+	 */
+	public static final class Mark {
+		private final long wall;
+		private final long cpu;
+		private final long allocated;
+
+		private Mark(long wall, long cpu, long allocated) {
+			this.wall = wall;
+			this.cpu = cpu;
+			this.allocated = allocated;
+		}
+	}
+
+	/**
+	 * Represents measurements of one phase or component.
+	 */
+	private static class Stats {
+		private final String kind;
+		private long count;
+		private long wall;
+		private long cpu;
+		private long allocated;
+		private long bytesIn;
+		private long bytesOut;
+		// Wall times of single runs.
+		private long[] latencies = new long[16];
+
+		Stats(String kind) {
+			this.kind = kind;
+		}
+
+		synchronized void add(long wall, long cpu, long allocated,
+				long bytesIn, long bytesOut) {
+			if (this.count == this.latencies.length) {
+				this.latencies = Arrays.copyOf(this.latencies,
+						this.latencies.length * 2);
+			}
+			this.latencies[(int) this.count] = wall;
+			this.count++;
+			this.wall += wall;
+			this.cpu += cpu;
+			this.allocated += allocated;
+			this.bytesIn += bytesIn;
+			this.bytesOut += bytesOut;
+		}
+
+		synchronized JSONObject toJson(boolean component) {
+			JSONObject json = new JSONObject();
+			json.put("wallNanos", this.wall);
+			json.put("cpuNanos", this.cpu);
+			json.put("allocatedBytes", this.allocated);
+			if (component) {
+				json.put("kind", this.kind);
+				json.put("files", this.count);
+				json.put("bytesIn", this.bytesIn);
+				json.put("bytesOut", this.bytesOut);
+
+				long[] sorted = Arrays.copyOf(this.latencies, (int) this.count);
+				Arrays.sort(sorted);
+				JSONObject latency = new JSONObject();
+				latency.put("p50", percentile(sorted, 50));
+				latency.put("p90", percentile(sorted, 90));
+				latency.put("p99", percentile(sorted, 99));
+				latency.put("max", sorted.length == 0 ? 0
+						: sorted[sorted.length - 1]);
+				json.put("latencyNanos", latency);
+			}
+			return json;
+		}
+
+		private static long percentile(long[] sorted, int percentile) {
+			if (sorted.length == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(sorted.length * percentile / 100.0) - 1;
+			return sorted[Math.max(0, index)];
+		}
+	}
+}
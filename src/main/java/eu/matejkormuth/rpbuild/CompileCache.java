@@ -0,0 +1,275 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.matejkormuth.rpbuild.api.Setting;
+
+/**
+ * Persistent cache of compiled files. Outputs of compiler chains are stored on
+ * disk under a key computed from rpbuild version, build charset, classes and
+ * settings of compilers in the chain, relative path of the file and its
+ * contents. Cache is shared by all compile threads.
+ * <p>
+ * When compiler chain did not change the file, only small marker is stored
+ * instead of its contents, so big files which are not compiled are not copied
+ * to cache and they are not written again on cache hit.
+ */
+public class CompileCache {
+	private static final Logger log = LoggerFactory.getLogger(CompileCache.class);
+	private static final Charset KEY_CHARSET = Charset.forName("UTF-8");
+	// Version of format of cached files, changing it invalidates them.
+	private static final String FORMAT = "2";
+	// First byte of cached file which says whether compiled contents follow.
+	private static final byte HEADER_UNCHANGED = 0;
+	private static final byte HEADER_CONTENTS = 1;
+
+	/**
+	 * Value returned by {@link #get(String)} when compiler chain did not
+	 * change the file. Must be compared by identity.
+	 */
+	public static final byte[] UNCHANGED = new byte[0];
+
+	private final Path directory;
+	private final String version;
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	/**
+	 * Creates new cache stored in specified directory.
+	 * 
+	 * @param directory
+	 *            directory with cached files
+	 */
+	public CompileCache(Path directory) {
+		this.directory = directory;
+		String implementationVersion = CompileCache.class.getPackage()
+				.getImplementationVersion();
+		// Not packaged builds do not have version.
+		this.version = implementationVersion == null ? "dev"
+				: implementationVersion;
+	}
+
+	/**
+	 * Returns whether output of specified compiler chain can be cached.
+	 * 
+	 * @param chain
+	 *            compiler chain
+	 * @return true if all compilers in chain are cacheable
+	 */
+	public boolean isCacheable(List<Compiler> chain) {
+		for (Compiler compiler : chain) {
+			if (!compiler.isCacheable()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Computes cache key of specified file compiled by specified chain.
+	 * 
+	 * @param relative
+	 *            path of file relative to resource pack root
+	 * @param contents
+	 *            contents of file before compilation
+	 * @param chain
+	 *            compilers that will compile the file
+	 * @param charset
+	 *            build charset
+	 * @return key of the file
+	 */
+	public String key(Path relative, ByteBuffer contents, List<Compiler> chain,
+			Charset charset) {
+		MessageDigest digest = Hashes.sha1();
+		update(digest, FORMAT);
+		update(digest, this.version);
+		update(digest, charset.name());
+		for (Compiler compiler : chain) {
+			update(digest, compiler.getClass().getName());
+			Setting[] settings = compiler.getSettings();
+			if (settings != null) {
+				for (Setting setting : settings) {
+					update(digest, setting.getKey());
+					update(digest, setting.getValue());
+				}
+			}
+		}
+		update(digest, relative.toString().replace('\\', '/'));
+		digest.update(contents);
+		return Hashes.toHex(digest.digest());
+	}
+
+	/**
+	 * Returns cached output for specified key or null if there is none.
+	 * 
+	 * @param key
+	 *            cache key
+	 * @return cached contents, {@link #UNCHANGED} if compiler chain did not
+	 *         change the file or null
+	 */
+	public byte[] get(String key) {
+		try (FileChannel channel = FileChannel.open(this.getPath(key),
+				StandardOpenOption.READ)) {
+			byte[] contents = read(channel);
+			if (contents == null) {
+				log.warn("Cached file {} is corrupted!", key);
+				this.misses.incrementAndGet();
+				return null;
+			}
+			this.hits.incrementAndGet();
+			return contents;
+		} catch (NoSuchFileException e) {
+			this.misses.incrementAndGet();
+			return null;
+		} catch (IOException e) {
+			log.warn("Can't read cached file {}!", key, e);
+			this.misses.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * Stores output for specified key. Failure to store the output is only
+	 * logged, because cache is not essential for the build.
+	 * 
+	 * @param key
+	 *            cache key
+	 * @param contents
+	 *            compiled contents or {@link #UNCHANGED} if compiler chain did
+	 *            not change the file
+	 */
+	public void put(String key, byte[] contents) {
+		Path path = this.getPath(key);
+		Path temp = null;
+		try {
+			Files.createDirectories(path.getParent());
+			// Write to temporary file first, so readers never see
+			// partially written file.
+			temp = Files.createTempFile(path.getParent(), key, ".tmp");
+			try (FileChannel channel = FileChannel.open(temp,
+					StandardOpenOption.WRITE)) {
+				write(channel, contents);
+			}
+			Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warn("Can't write cached file {}!", key, e);
+		} finally {
+			// Temporary file is left only when writing or moving failed.
+			deleteQuietly(temp);
+		}
+	}
+
+	private static void deleteQuietly(Path temp) {
+		if (temp == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(temp);
+		} catch (IOException e) {
+			log.warn("Can't delete temporary file {}!", temp, e);
+		}
+	}
+
+	public int getHits() {
+		return hits.get();
+	}
+
+	public int getMisses() {
+		return misses.get();
+	}
+
+	// Reads cached file, returns null if it is not valid.
+	private static byte[] read(FileChannel channel) throws IOException {
+		long size = channel.size();
+		if (size < 1 || size > Integer.MAX_VALUE) {
+			return null;
+		}
+		ByteBuffer header = ByteBuffer.allocate(1);
+		readFully(channel, header);
+		if (header.get(0) == HEADER_UNCHANGED) {
+			return size == 1 ? UNCHANGED : null;
+		}
+		if (header.get(0) != HEADER_CONTENTS) {
+			return null;
+		}
+		byte[] contents = new byte[(int) size - 1];
+		readFully(channel, ByteBuffer.wrap(contents));
+		return contents;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Unexpected end of cached file!");
+			}
+		}
+	}
+
+	private static void write(FileChannel channel, byte[] contents)
+			throws IOException {
+		boolean unchanged = contents == UNCHANGED;
+		ByteBuffer[] buffers = {
+				ByteBuffer.wrap(new byte[] { unchanged ? HEADER_UNCHANGED
+						: HEADER_CONTENTS }), ByteBuffer.wrap(contents) };
+		while (buffers[0].hasRemaining() || buffers[1].hasRemaining()) {
+			channel.write(buffers);
+		}
+	}
+
+	private Path getPath(String key) {
+		return this.directory.resolve(key.substring(0, 2)).resolve(
+				key.substring(2));
+	}
+
+	private static void update(MessageDigest digest, String value) {
+		if (value != null) {
+			digest.update(value.getBytes(KEY_CHARSET));
+		}
+		// Separator, so different values can't produce same input.
+		digest.update((byte) 0);
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RecursiveAction;
+
+import eu.matejkormuth.rpbuild.exceptions.BuildError;
+
+/**
+ * Fork/join task that compiles range of files. Each leaf task borrows one set
+ * of compiler chains (for main archive and for variants) from the shared queue
+ * for the whole range, so compilers that are not thread safe are never used by
+ * two threads at once.
+ */
+class CompileTask extends RecursiveAction {
+	private static final long serialVersionUID = 3871160253095478513L;
+
+	private final Assembler assembler;
+	private final CompilerListByFileExtension list;
+	private final List<Path> paths;
+	private final BlockingQueue<List<List<Compiler>>> chains;
+	private final int threshold;
+	private final int from;
+	private final int to;
+
+	CompileTask(Assembler assembler, CompilerListByFileExtension list,
+			List<Path> paths, BlockingQueue<List<List<Compiler>>> chains,
+			int threshold) {
+		this(assembler, list, paths, chains, threshold, 0, paths.size());
+	}
+
+	private CompileTask(Assembler assembler, CompilerListByFileExtension list,
+			List<Path> paths, BlockingQueue<List<List<Compiler>>> chains,
+			int threshold, int from, int to) {
+		this.assembler = assembler;
+		this.list = list;
+		this.paths = paths;
+		this.chains = chains;
+		this.threshold = threshold;
+		this.from = from;
+		this.to = to;
+	}
+
+	@Override
+	protected void compute() {
+		if (this.to - this.from > this.threshold) {
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(new CompileTask(this.assembler, this.list, this.paths,
+					this.chains, this.threshold, this.from, middle),
+					new CompileTask(this.assembler, this.list, this.paths,
+							this.chains, this.threshold, middle, this.to));
+			return;
+		}
+
+		List<List<Compiler>> chain;
+		try {
+			chain = this.chains.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new Failure(new BuildError("Compilation was interrupted!", e));
+		}
+
+		try {
+			for (int i = this.from; i < this.to; i++) {
+				this.assembler.compileFile(this.paths.get(i), this.list, chain);
+			}
+		} catch (BuildError e) {
+			throw new Failure(e);
+		} finally {
+			this.chains.add(chain);
+		}
+	}
+
+	/**
+	 * Carries {@link BuildError} out of fork/join pool.
+	 */
+	static class Failure extends RuntimeException {
+		private static final long serialVersionUID = -1529384465398816411L;
+
+		Failure(BuildError cause) {
+			super(cause);
+		}
+
+		public BuildError getError() {
+			return (BuildError) this.getCause();
+		}
+	}
+}
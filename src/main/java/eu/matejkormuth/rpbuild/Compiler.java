@@ -28,10 +28,23 @@
  */
 package eu.matejkormuth.rpbuild;
 
+import java.awt.Dimension;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+
 import eu.matejkormuth.rpbuild.exceptions.BuildError;
 
 /**
  * Represents object that build some type of file(s).
+ * <p>
+ * When the project is built with more than one thread, files are compiled
+ * concurrently. Compilers annotated with {@link ThreadSafe} are shared by all
+ * compile threads and must not keep per-file state in their fields. All other
+ * compilers are created once per compile thread through
+ * {@link eu.matejkormuth.rpbuild.api.BuildStepCompile#getCompiler()}, so each
+ * instance is only ever used by one thread at a time.
  */
 public abstract class Compiler extends Component {
 	/**
@@ -41,4 +54,68 @@ public abstract class Compiler extends Component {
 	 * @throws BuildError when files couldn't be compiled
 	 */
 	public abstract void compile(OpenedFile file) throws BuildError;
+
+	/**
+	 * Called before first file is compiled in each build. Files found in
+	 * resource pack can be listed here. Only instance created from build
+	 * configuration is notified, not instances created for compile threads.
+	 * When the project is built with more than one thread, this method is
+	 * called from fork/join pool, so work can be split to tasks.
+	 * 
+	 * @throws BuildError when compilation can't start
+	 */
+	public void onCompileStart() throws BuildError {
+	}
+
+	/**
+	 * Called after all files are compiled in each build. Only instance
+	 * created from build configuration is notified, not instances created for
+	 * compile threads.
+	 * 
+	 * @throws BuildError when build should fail
+	 */
+	public void onCompileEnd() throws BuildError {
+	}
+
+	/**
+	 * Returns whether output of this compiler depends only on contents and
+	 * path of compiled file and settings of this compiler, so it can be
+	 * stored in compile cache. Compilers that read other files or only
+	 * validate files should return false.
+	 * 
+	 * @return true if output of this compiler can be cached
+	 */
+	public boolean isCacheable() {
+		return true;
+	}
+
+	/**
+	 * Returns files which output of this compiler depends on specified files,
+	 * so they are compiled again in watch mode when specified files change.
+	 * By default output depends only on compiled file.
+	 * 
+	 * @param changed
+	 *            paths of changed files relative to resource pack root
+	 * @return paths of dependent files relative to resource pack root
+	 */
+	public Set<Path> getDependants(Collection<Path> changed) {
+		return Collections.emptySet();
+	}
+
+	/**
+	 * Returns how many times image in specified file can be subsampled in
+	 * each direction when it is decoded for this compiler. When file is
+	 * compiled for more variants, image is decoded only once with smallest
+	 * subsampling requested by compilers of all variants and it is available
+	 * through {@link OpenedFile#getSubsampledImage(int)}.
+	 * 
+	 * @param file
+	 *            image file
+	 * @param size
+	 *            size of image read from its header
+	 * @return subsampling or 0 if this compiler does not decode the image
+	 */
+	public int getImageSubsampling(OpenedFile file, Dimension size) {
+		return 0;
+	}
 }
@@ -30,7 +30,7 @@ package eu.matejkormuth.rpbuild;
 
 import java.nio.charset.Charset;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,6 +38,7 @@ import org.slf4j.LoggerFactory;
 import eu.matejkormuth.rpbuild.api.Project;
 import eu.matejkormuth.rpbuild.api.Setting;
 import eu.matejkormuth.rpbuild.configuration.xml.XmlSetting;
+import eu.matejkormuth.rpbuild.exceptions.BuildError;
 import eu.matejkormuth.rpbuild.exceptions.InvalidSettingsError;
 
 /**
@@ -71,7 +72,8 @@ public abstract class Component {
 			throw new IllegalAccessError(
 					"Settings have been already set for this component!");
 		}
-		this.settings = settings;
+		// Steps without settings element have no settings.
+		this.settings = settings == null ? new Setting[0] : settings;
 	}
 
 	// This method should be overridden by concrete classes.
@@ -84,6 +86,10 @@ public abstract class Component {
 	public void onInit() throws InvalidSettingsError {
 	}
 
+	Setting[] getSettings() {
+		return settings;
+	}
+
 	public Logger getLogger() {
 		return log;
 	}
@@ -108,13 +114,67 @@ public abstract class Component {
 
 	/**
 	 * Returns absolute path from resource pack root and relative path string.
+	 * Files written by the build are preferred over source files.
 	 * 
 	 * @param relative
 	 *            relative path as string
 	 * @return absolute Path
 	 */
 	public Path getPath(String relative) {
-		return this.assembler.getSourcePath().resolve(Paths.get(relative));
+		return this.assembler.resolvePath(relative);
+	}
+
+	/**
+	 * Returns path of file relative to resource pack root, for example to
+	 * report problems in compiled file.
+	 * 
+	 * @param path
+	 *            path of file in resource pack
+	 * @return relative path
+	 */
+	public Path relativize(Path path) {
+		return this.assembler.relativizePath(path);
+	}
+
+	/**
+	 * Returns whether file specified by relative path exists. Files written
+	 * by the build may be kept only in memory, so this should be used instead
+	 * of checking path returned by {@link #getPath(String)}.
+	 * 
+	 * @param relative
+	 *            relative path as string
+	 * @return true if file exists
+	 */
+	public boolean exists(String relative) {
+		return this.assembler.exists(relative);
+	}
+
+	/**
+	 * Opens file specified by relative path. Files written by the build are
+	 * preferred over source files.
+	 * 
+	 * @param relative
+	 *            relative path as string
+	 * @return opened file
+	 * @throws BuildError
+	 *             when file can't be opened
+	 */
+	public OpenedFile open(String relative) throws BuildError {
+		return this.assembler.open(relative);
+	}
+
+	/**
+	 * Returns relative paths of all files found in specified directory of
+	 * resource pack and its subdirectories, including generated and already
+	 * compiled files.
+	 * 
+	 * @param directory
+	 *            directory relative to resource pack root, with '/' as
+	 *            separator
+	 * @return relative paths with '/' as separator
+	 */
+	public List<String> getFileNames(String directory) {
+		return this.assembler.getFileNames(directory);
 	}
 
 	/**
@@ -0,0 +1,161 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild;
+
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+
+import eu.matejkormuth.rpbuild.api.CompressionPolicy;
+
+/**
+ * Represents compression policy resolved for zip archive.
+ */
+final class CompressionRule {
+	// Characters that make file pattern a glob instead of extension.
+	private static final String GLOB_CHARACTERS = "*?[{";
+
+	private final String files;
+	// Matcher of glob pattern or null when files is an extension.
+	private final PathMatcher matcher;
+	private final String method;
+	private final int level;
+	private final int minGain;
+
+	private CompressionRule(String files, String method, int level,
+			int minGain) {
+		this.files = files;
+		this.method = method;
+		this.level = level;
+		this.minGain = minGain;
+
+		if (files != null && isGlob(files)) {
+			this.matcher = FileSystems.getDefault().getPathMatcher(
+					"glob:" + files);
+		} else {
+			this.matcher = null;
+		}
+	}
+
+	/**
+	 * Creates rule that deflates all files at specified level.
+	 */
+	static CompressionRule deflate(int level) {
+		return new CompressionRule(null, CompressionPolicy.METHOD_DEFLATE,
+				level, 0);
+	}
+
+	/**
+	 * Creates rule from policy specified in build descriptor.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             when the policy is not valid
+	 */
+	static CompressionRule of(CompressionPolicy policy, int defaultLevel) {
+		String method = policy.getMethod() == null ? CompressionPolicy.METHOD_DEFLATE
+				: policy.getMethod().toLowerCase();
+		if (!method.equals(CompressionPolicy.METHOD_DEFLATE)
+				&& !method.equals(CompressionPolicy.METHOD_STORED)
+				&& !method.equals(CompressionPolicy.METHOD_ADAPTIVE)) {
+			throw new IllegalArgumentException("Unknown compression method '"
+					+ policy.getMethod() + "'!");
+		}
+		if (policy.getFiles() == null || policy.getFiles().isEmpty()) {
+			throw new IllegalArgumentException(
+					"Compression policy must specify files!");
+		}
+		int level = policy.getLevel() < 0 ? defaultLevel : policy.getLevel();
+		if (level > 9) {
+			throw new IllegalArgumentException("Compression level " + level
+					+ " is not valid!");
+		}
+		if (policy.getMinGain() < 0 || policy.getMinGain() > 100) {
+			throw new IllegalArgumentException("Minimal gain "
+					+ policy.getMinGain() + " is not valid percentage!");
+		}
+		return new CompressionRule(policy.getFiles(), method, level,
+				policy.getMinGain());
+	}
+
+	private static boolean isGlob(String files) {
+		for (char c : GLOB_CHARACTERS.toCharArray()) {
+			if (files.indexOf(c) != -1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether entry with specified name is compressed by this rule.
+	 */
+	boolean matches(String name) {
+		if (this.files == null) {
+			return true;
+		}
+		if (this.matcher == null) {
+			return name.endsWith(this.files);
+		}
+		return this.matcher.matches(Paths.get(name));
+	}
+
+	boolean isStored() {
+		return this.method.equals(CompressionPolicy.METHOD_STORED);
+	}
+
+	boolean isAdaptive() {
+		return this.method.equals(CompressionPolicy.METHOD_ADAPTIVE);
+	}
+
+	int getLevel() {
+		return level;
+	}
+
+	/**
+	 * Returns whether data compressed to specified size should be stored
+	 * compressed.
+	 */
+	boolean isWorthCompressing(long size, long compressedSize) {
+		return compressedSize * 100 <= size * (100 - this.minGain);
+	}
+
+	/**
+	 * Returns key that identifies how data are compressed. Data compressed
+	 * with same key in previous archive can be reused.
+	 */
+	String getKey() {
+		if (this.isStored()) {
+			return CompressionPolicy.METHOD_STORED;
+		} else if (this.isAdaptive()) {
+			return CompressionPolicy.METHOD_ADAPTIVE + "-" + this.level + "-"
+					+ this.minGain;
+		}
+		return String.valueOf(this.level);
+	}
+}
@@ -30,43 +30,81 @@ package eu.matejkormuth.rpbuild;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Represents class that walks through file tree and finds relevant project
- * files.
+ * files. Found files are indexed by their extension and relative path, so
+ * looking them up by extension, directory or glob does not scan all files.
  */
 public class FileFinder extends SimpleFileVisitor<Path> {
 	private List<Path> paths;
 	private List<Path> directories;
 	private boolean ignoreGit;
 
+	// Relative paths of found files with '/' as separator.
+	private List<String> names;
+	// Indexes of already found files by relative path, sorted so whole
+	// directories can be looked up.
+	private TreeMap<String, Integer> pathIndexes;
+	// Indexes of already found files by extension (including the dot).
+	private Map<String, List<Integer>> extensionIndexes;
+	// Indexes of already found directories by relative path.
+	private Map<Path, Integer> directoryIndexes;
+	// Root of currently walked file tree.
+	private Path root;
+	// Pool that lists directories or null to walk in calling thread.
+	private ForkJoinPool pool;
+
 	/**
 	 * Creates new instance of FileFinder.
 	 */
 	public FileFinder() {
 		this.paths = new ArrayList<Path>();
 		this.directories = new ArrayList<>();
+		this.names = new ArrayList<>();
+		this.pathIndexes = new TreeMap<>();
+		this.extensionIndexes = new HashMap<>();
+		this.directoryIndexes = new HashMap<>();
 	}
 
 	/**
-	 * Finds all files in all directories (recursively) from start path. Note
-	 * that this method removes any found files from internal list.
+	 * Finds all files in all directories (recursively) from start paths. When
+	 * more start paths are specified, their file trees are merged and files
+	 * from later start paths replace files with same relative path from
+	 * earlier start paths. Note that this method removes any found files from
+	 * internal list.
 	 * 
-	 * @param start
-	 *            path to start.
+	 * @param roots
+	 *            paths to start.
 	 * @return amount of files found
 	 * @throws IOException if an I/O error is thrown by a visitor method
 	 */
-	public int find(Path start) throws IOException {
+	public int find(Path... roots) throws IOException {
 		this.paths.clear();
-		Files.walkFileTree(start, this);
+		this.directories.clear();
+		this.names.clear();
+		this.pathIndexes.clear();
+		this.extensionIndexes.clear();
+		this.directoryIndexes.clear();
+		for (Path start : roots) {
+			this.root = start;
+			TreeWalker.walk(this.pool, start, null, this);
+		}
 		return this.paths.size();
 	}
 
@@ -77,17 +115,61 @@ public class FileFinder extends SimpleFileVisitor<Path> {
 			return FileVisitResult.SKIP_SUBTREE;
 		}
 
-		this.paths.add(file);
+		this.add(this.root.relativize(file), file);
 		return super.visitFile(file, attrs);
 	}
 
+	/**
+	 * Adds file to found files without walking file tree again. If file with
+	 * same relative path was already found, its path is replaced.
+	 * 
+	 * @param relative
+	 *            path relative to resource pack root
+	 * @param path
+	 *            path of the file
+	 */
+	public synchronized void add(Path relative, Path path) {
+		String name = name(relative);
+		Integer index = this.pathIndexes.get(name);
+		if (index != null) {
+			// Keep position of overridden path, so order stays stable.
+			this.paths.set(index, path);
+			return;
+		}
+
+		index = this.paths.size();
+		this.paths.add(path);
+		this.names.add(name);
+		this.pathIndexes.put(name, index);
+
+		String extension = extension(name);
+		List<Integer> indexes = this.extensionIndexes.get(extension);
+		if (indexes == null) {
+			indexes = new ArrayList<Integer>();
+			this.extensionIndexes.put(extension, indexes);
+		}
+		indexes.add(index);
+	}
+
 	@Override
 	public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-		this.directories.add(dir);
+		put(this.directories, this.directoryIndexes, this.root.relativize(dir), dir);
 
 		return super.preVisitDirectory(dir, attrs);
 	}
 
+	private static void put(List<Path> list, Map<Path, Integer> indexes,
+			Path relative, Path path) {
+		Integer index = indexes.get(relative);
+		if (index == null) {
+			indexes.put(relative, list.size());
+			list.add(path);
+		} else {
+			// Keep position of overridden path, so order stays stable.
+			list.set(index, path);
+		}
+	}
+
 	/**
 	 * Returns list of all found files as Path list.
 	 * 
@@ -97,6 +179,20 @@ public class FileFinder extends SimpleFileVisitor<Path> {
 		return paths;
 	}
 
+	/**
+	 * Returns list of all found files sorted by their relative paths, so
+	 * order does not depend on layers or memory in which files are staged.
+	 * 
+	 * @return list of paths
+	 */
+	public synchronized List<Path> getPathsByName() {
+		List<Path> files = new ArrayList<Path>(this.paths.size());
+		for (int index : this.pathIndexes.values()) {
+			files.add(this.paths.get(index));
+		}
+		return files;
+	}
+
 	public List<Path> getDirectories() {
 		return directories;
 	}
@@ -133,21 +229,181 @@ public class FileFinder extends SimpleFileVisitor<Path> {
 
 	/**
 	 * Returns list of all found files with specified file type (extension) as
-	 * Path list.
+	 * Path list. Any ending of relative path can be used as file type, for
+	 * example <code>.json</code> or <code>pack.mcmeta</code>.
 	 * 
 	 * @param fileExtension file extension to look for
 	 * @return list of paths
 	 */
 	public List<Path> getPaths(String fileExtension) {
-		List<Path> files = new ArrayList<Path>();
-		for (Path p : this.paths) {
-			if (p.toString().endsWith(fileExtension)) {
-				files.add(p);
+		String extension = extension(fileExtension);
+		if (extension.isEmpty()) {
+			// Without dot any file can match.
+			List<Path> files = new ArrayList<Path>();
+			for (int i = 0; i < this.names.size(); i++) {
+				if (this.names.get(i).endsWith(fileExtension)) {
+					files.add(this.paths.get(i));
+				}
+			}
+			return files;
+		}
+
+		// Names ending with specified ending have same extension.
+		List<Integer> indexes = this.extensionIndexes.get(extension);
+		if (indexes == null) {
+			return new ArrayList<Path>();
+		}
+		boolean exact = extension.length() == fileExtension.length();
+		List<Path> files = new ArrayList<Path>(exact ? indexes.size() : 16);
+		for (int index : indexes) {
+			if (exact || this.names.get(index).endsWith(fileExtension)) {
+				files.add(this.paths.get(index));
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Returns list of all found files in specified directory and its
+	 * subdirectories.
+	 * 
+	 * @param directory
+	 *            directory relative to resource pack root, with '/' as
+	 *            separator
+	 * @return list of paths
+	 */
+	public List<Path> getPathsIn(String directory) {
+		if (directory.isEmpty()) {
+			return new ArrayList<Path>(this.paths);
+		}
+		String prefix = directory.endsWith("/") ? directory : directory + "/";
+		return this.toPaths(this.range(prefix));
+	}
+
+	/**
+	 * Returns relative paths of all found files in specified directory and
+	 * its subdirectories.
+	 * 
+	 * @param directory
+	 *            directory relative to resource pack root, with '/' as
+	 *            separator
+	 * @return list of relative paths with '/' as separator
+	 */
+	public synchronized List<String> getNamesIn(String directory) {
+		Collection<Integer> indexes;
+		if (directory.isEmpty()) {
+			indexes = this.pathIndexes.values();
+		} else {
+			indexes = this.range(directory.endsWith("/") ? directory
+					: directory + "/");
+		}
+		List<String> names = new ArrayList<String>(indexes.size());
+		for (int index : indexes) {
+			names.add(this.names.get(index));
+		}
+		return names;
+	}
+
+	/**
+	 * Returns list of all found files whose relative path matches specified
+	 * glob pattern, for example <code>assets/*&#47;textures/**.png</code>.
+	 * 
+	 * @param glob
+	 *            glob pattern with '/' as separator
+	 * @return list of paths
+	 */
+	public List<Path> getPathsMatching(String glob) {
+		PathMatcher matcher = FileSystems.getDefault().getPathMatcher(
+				"glob:" + glob);
+
+		// Only files in directory before first wildcard or files with
+		// extension after last wildcard can match.
+		int wildcard = indexOfWildcard(glob);
+		Collection<Integer> candidates;
+		if (wildcard < 0) {
+			Integer index = this.pathIndexes.get(glob);
+			candidates = index == null ? Collections.<Integer> emptyList()
+					: Collections.singletonList(index);
+		} else {
+			String prefix = glob.substring(0, glob.lastIndexOf('/', wildcard) + 1);
+			String extension = extension(glob);
+			if (!prefix.isEmpty()) {
+				candidates = this.range(prefix);
+			} else if (!extension.isEmpty()
+					&& indexOfWildcard(extension) < 0) {
+				candidates = this.extensionIndexes.get(extension);
+				if (candidates == null) {
+					candidates = Collections.emptyList();
+				}
+			} else {
+				candidates = this.pathIndexes.values();
 			}
 		}
+
+		List<Integer> matching = new ArrayList<Integer>();
+		for (int index : candidates) {
+			if (matcher.matches(Paths.get(this.names.get(index)))) {
+				matching.add(index);
+			}
+		}
+		return this.toPaths(matching);
+	}
+
+	private Collection<Integer> range(String prefix) {
+		// All names starting with "dir/" are between "dir/" and "dir0".
+		String end = prefix.substring(0, prefix.length() - 1)
+				+ (char) (prefix.charAt(prefix.length() - 1) + 1);
+		return this.pathIndexes.subMap(prefix, end).values();
+	}
+
+	private List<Path> toPaths(Collection<Integer> indexes) {
+		// Return files in same order as they were found.
+		List<Integer> sorted = new ArrayList<Integer>(indexes);
+		Collections.sort(sorted);
+		List<Path> files = new ArrayList<Path>(sorted.size());
+		for (int index : sorted) {
+			files.add(this.paths.get(index));
+		}
 		return files;
 	}
 
+	private static String name(Path relative) {
+		String name = relative.toString();
+		if (File.separatorChar != '/') {
+			name = name.replace(File.separatorChar, '/');
+		}
+		return name;
+	}
+
+	private static String extension(String name) {
+		int dot = name.lastIndexOf('.');
+		if (dot < 0 || dot < name.lastIndexOf('/')) {
+			return "";
+		}
+		return name.substring(dot);
+	}
+
+	private static int indexOfWildcard(String glob) {
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '*' || c == '?' || c == '[' || c == '{' || c == '\\') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Sets pool that lists directories in parallel. Files are found in the
+	 * same order as without the pool.
+	 * 
+	 * @param pool
+	 *            fork/join pool or null to walk file tree in calling thread
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
 	/**
 	 * Specifies whether this finder should ignore possible git folders.
 	 * 
@@ -28,6 +28,8 @@
  */
 package eu.matejkormuth.rpbuild;
 
+import java.nio.file.Path;
+
 import eu.matejkormuth.rpbuild.exceptions.BuildError;
 
 /**
@@ -42,4 +44,17 @@ public abstract class Generator extends Component {
 	 *             when there is problem with generation of file
 	 */
 	public abstract OpenedFile generate() throws BuildError;
+
+	/**
+	 * Returns whether output of this generator may change when specified
+	 * source file changes. Used by watch mode to run only generators affected
+	 * by changed files. By default every change affects generator.
+	 * 
+	 * @param relative
+	 *            path of changed file relative to resource pack root
+	 * @return true if generator should be run again
+	 */
+	public boolean isAffectedBy(Path relative) {
+		return true;
+	}
 }
@@ -0,0 +1,214 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Reads and writes images with readers and writers reused by each thread.
+ * <p>
+ * Unlike {@link ImageIO#read(InputStream)}, streams are cached in memory
+ * instead of temporary files and codecs are not looked up for every image.
+ */
+public final class ImageCodecs {
+	private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G',
+			'\r', '\n', 0x1A, '\n' };
+
+	private static final ThreadLocal<Map<String, ImageReader>> readers = new ThreadLocal<Map<String, ImageReader>>() {
+		@Override
+		protected Map<String, ImageReader> initialValue() {
+			return new HashMap<String, ImageReader>();
+		}
+	};
+	private static final ThreadLocal<Map<String, ImageWriter>> writers = new ThreadLocal<Map<String, ImageWriter>>() {
+		@Override
+		protected Map<String, ImageWriter> initialValue() {
+			return new HashMap<String, ImageWriter>();
+		}
+	};
+
+	private ImageCodecs() {
+	}
+
+	/**
+	 * Reads image in specified format. Every subsampling-th pixel in both
+	 * directions is decoded, starting in the middle of first block of pixels,
+	 * so subsampled image looks like image scaled with nearest neighbor.
+	 * 
+	 * @param in
+	 *            stream with image
+	 * @param format
+	 *            informal name of format, for example png
+	 * @param subsampling
+	 *            1 to decode all pixels
+	 * @return decoded image or null when format is not supported
+	 * @throws IOException
+	 *             when image can't be read
+	 */
+	public static BufferedImage read(InputStream in, String format,
+			int subsampling) throws IOException {
+		ImageReader reader = getReader(format);
+		if (reader == null) {
+			return null;
+		}
+		try (ImageInputStream stream = new MemoryCacheImageInputStream(in)) {
+			reader.setInput(stream, true, true);
+			ImageReadParam param = reader.getDefaultReadParam();
+			if (subsampling > 1) {
+				param.setSourceSubsampling(subsampling, subsampling,
+						subsampling / 2, subsampling / 2);
+			}
+			return reader.read(0, param);
+		} finally {
+			reader.setInput(null);
+		}
+	}
+
+	/**
+	 * Writes image in specified format.
+	 * 
+	 * @param image
+	 *            image to write
+	 * @param format
+	 *            informal name of format, for example png
+	 * @param out
+	 *            stream to write image to
+	 * @return false when format is not supported
+	 * @throws IOException
+	 *             when image can't be written
+	 */
+	public static boolean write(BufferedImage image, String format,
+			OutputStream out) throws IOException {
+		ImageWriter writer = getWriter(format);
+		if (writer == null) {
+			return false;
+		}
+		try (ImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+			writer.setOutput(stream);
+			writer.write(image);
+		} finally {
+			writer.setOutput(null);
+		}
+		return true;
+	}
+
+	/**
+	 * Returns whether images in specified format can be read.
+	 * 
+	 * @param format
+	 *            informal name of format, for example png
+	 * @return true if format is supported
+	 */
+	public static boolean canRead(String format) {
+		return getReader(format) != null;
+	}
+
+	/**
+	 * Reads width and height of PNG image from its header without decoding
+	 * the image. Only first 24 bytes of stream are read.
+	 * 
+	 * @param in
+	 *            stream with image
+	 * @return size of image or null if stream does not contain PNG image
+	 * @throws IOException
+	 *             when stream can't be read
+	 */
+	public static Dimension readPngSize(InputStream in) throws IOException {
+		// Signature, length and type of IHDR chunk, width and height.
+		byte[] header = new byte[24];
+		try {
+			new DataInputStream(in).readFully(header);
+		} catch (EOFException e) {
+			return null;
+		}
+		for (int i = 0; i < PNG_SIGNATURE.length; i++) {
+			if (header[i] != PNG_SIGNATURE[i]) {
+				return null;
+			}
+		}
+		if (header[12] != 'I' || header[13] != 'H' || header[14] != 'D'
+				|| header[15] != 'R') {
+			return null;
+		}
+		return new Dimension(readInt(header, 16), readInt(header, 20));
+	}
+
+	private static int readInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16
+				| (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+	}
+
+	private static ImageReader getReader(String format) {
+		Map<String, ImageReader> cache = readers.get();
+		ImageReader reader = cache.get(format);
+		if (reader == null) {
+			Iterator<ImageReader> found = ImageIO
+					.getImageReadersByFormatName(format);
+			if (!found.hasNext()) {
+				return null;
+			}
+			reader = found.next();
+			cache.put(format, reader);
+		}
+		return reader;
+	}
+
+	private static ImageWriter getWriter(String format) {
+		Map<String, ImageWriter> cache = writers.get();
+		ImageWriter writer = cache.get(format);
+		if (writer == null) {
+			Iterator<ImageWriter> found = ImageIO
+					.getImageWritersByFormatName(format);
+			if (!found.hasNext()) {
+				return null;
+			}
+			writer = found.next();
+			cache.put(format, writer);
+		}
+		return writer;
+	}
+}
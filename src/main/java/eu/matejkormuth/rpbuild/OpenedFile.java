@@ -28,45 +28,428 @@
  */
 package eu.matejkormuth.rpbuild;
 
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.imageio.ImageIO;
+
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import eu.matejkormuth.rpbuild.exceptions.BuildError;
 
 /**
  * Represents opened file. Contains file path and file contents.
+ * <p>
+ * Contents of file are read on first access, so files which compilers skip
+ * are never read. Big files can be accessed through memory mapped buffer
+ * without copying them to heap.
+ * <p>
+ * Compilers in one chain can share parsed JSON or decoded image of file.
+ * Contents are parsed only once and when view is changed, it is serialized
+ * only once when contents are accessed again.
  */
 public class OpenedFile {
+	// Files at least this big are mapped instead of read to heap.
+	private static final long MAP_THRESHOLD = 1024 * 1024;
+
 	private Path path;
+	// Contents or null if they were not read yet.
 	private byte[] contents;
+	// Mapped contents of big file or null if file was not mapped.
+	private ByteBuffer mapped;
+	// Whether contents differ from file on disk.
+	private boolean modified;
+
+	// Parsed JSON or null if contents were not parsed.
+	private JSONObject json;
+	private Charset charset;
+	// Decoded image or null if contents were not decoded.
+	private BufferedImage image;
+	private String imageFormat;
+	// Image decoded with subsampling for all copies of file or null.
+	private BufferedImage subsampledImage;
+	private int subsampling;
+	// Whether view was changed and contents must be serialized from it.
+	private boolean viewModified;
 
 	public OpenedFile(Path path) throws BuildError {
 		this.path = path;
-		try {
-			this.contents = Files.readAllBytes(path);
-		} catch (Exception e) {
-			throw new BuildError(e);
-		}
 	}
 
 	public OpenedFile(Path path, byte[] contents) {
 		this.path = path;
 		this.contents = contents;
+		this.modified = true;
+	}
+
+	/**
+	 * Creates file with contents that are already staged somewhere, so file
+	 * is not modified until its contents are set.
+	 */
+	OpenedFile(Path path, byte[] contents, boolean modified) {
+		this.path = path;
+		this.contents = contents;
+		this.modified = modified;
 	}
 
 	public Path getPath() {
 		return path;
 	}
 
-	public byte[] getContents() {
+	/**
+	 * Returns contents of this file. File is read when this method is called
+	 * for the first time.
+	 * 
+	 * @return contents of file
+	 * @throws BuildError
+	 *             when file can't be read
+	 */
+	public byte[] getContents() throws BuildError {
+		this.serializeView();
+		if (this.contents == null) {
+			if (this.mapped != null) {
+				byte[] bytes = new byte[this.mapped.remaining()];
+				this.mapped.duplicate().get(bytes);
+				this.contents = bytes;
+			} else {
+				try {
+					this.contents = Files.readAllBytes(this.path);
+				} catch (IOException e) {
+					throw new BuildError("Can't read file " + this.path + "!", e);
+				}
+			}
+		}
 		return contents;
 	}
 
+	/**
+	 * Returns read only view of contents of this file. Big files which were
+	 * not read yet are mapped to memory.
+	 * 
+	 * @return contents of file
+	 * @throws BuildError
+	 *             when file can't be read
+	 */
+	public ByteBuffer getBuffer() throws BuildError {
+		this.serializeView();
+		if (this.contents == null && this.mapped == null
+				&& this.getSize() >= MAP_THRESHOLD) {
+			try (FileChannel channel = FileChannel.open(this.path,
+					StandardOpenOption.READ)) {
+				this.mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+						channel.size());
+			} catch (IOException e) {
+				throw new BuildError("Can't map file " + this.path + "!", e);
+			}
+		}
+		if (this.contents == null && this.mapped != null) {
+			return this.mapped.duplicate();
+		}
+		return ByteBuffer.wrap(this.getContents()).asReadOnlyBuffer();
+	}
+
+	/**
+	 * Opens stream with contents of this file. When contents were not read
+	 * yet, the stream reads file directly.
+	 * 
+	 * @return stream with contents of file
+	 * @throws BuildError
+	 *             when file can't be opened
+	 */
+	public InputStream openStream() throws BuildError {
+		this.serializeView();
+		if (this.contents != null) {
+			return new ByteArrayInputStream(this.contents);
+		}
+		try {
+			return Files.newInputStream(this.path);
+		} catch (IOException e) {
+			throw new BuildError("Can't open file " + this.path + "!", e);
+		}
+	}
+
+	/**
+	 * Returns size of contents of this file without reading them.
+	 * 
+	 * @return size in bytes
+	 * @throws BuildError
+	 *             when size of file can't be read
+	 */
+	public long getSize() throws BuildError {
+		this.serializeView();
+		if (this.contents != null) {
+			return this.contents.length;
+		}
+		if (this.mapped != null) {
+			return this.mapped.capacity();
+		}
+		try {
+			return Files.size(this.path);
+		} catch (IOException e) {
+			throw new BuildError("Can't read size of file " + this.path + "!", e);
+		}
+	}
+
 	public void setContents(byte[] contents) {
 		this.contents = contents;
+		this.mapped = null;
+		this.modified = true;
+		this.json = null;
+		this.image = null;
+		this.subsampledImage = null;
+		this.viewModified = false;
+	}
+
+	/**
+	 * Returns contents of this file parsed as JSON object. Contents are parsed
+	 * only once, so returned object is shared by all compilers in chain. When
+	 * object is changed, {@link #setJson(JSONObject, Charset)} must be called.
+	 * 
+	 * @param charset
+	 *            charset of file
+	 * @return parsed JSON
+	 * @throws BuildError
+	 *             when file can't be read or is not valid JSON
+	 */
+	public JSONObject getJson(Charset charset) throws BuildError {
+		if (this.json == null) {
+			String text = new String(this.getContents(), charset);
+			try {
+				this.json = new JSONObject(text);
+			} catch (JSONException e) {
+				throw new BuildError("Can't parse JSON file " + this.path
+						+ "!", e);
+			}
+			this.charset = charset;
+		}
+		return this.json;
+	}
+
+	/**
+	 * Sets contents of this file to specified JSON object. Object is
+	 * serialized when contents are accessed.
+	 * 
+	 * @param json
+	 *            new contents
+	 * @param charset
+	 *            charset used to serialize JSON
+	 */
+	public void setJson(JSONObject json, Charset charset) {
+		this.setView();
+		this.json = json;
+		this.charset = charset;
+	}
+
+	/**
+	 * Returns contents of this file decoded as image. Image is decoded only
+	 * once, so returned image is shared by all compilers in chain. When image
+	 * is changed, {@link #setImage(BufferedImage, String)} must be called.
+	 * 
+	 * @return decoded image
+	 * @throws BuildError
+	 *             when file can't be read or is not supported image
+	 */
+	public BufferedImage getImage() throws BuildError {
+		if (this.image == null) {
+			try (InputStream in = this.openStream()) {
+				this.image = ImageCodecs.read(in, this.getFormat(), 1);
+				if (this.image == null) {
+					// Let ImageIO guess format from contents.
+					this.image = ImageIO.read(in);
+				}
+			} catch (IOException e) {
+				throw new BuildError("Can't read image " + this.path + "!", e);
+			}
+			if (this.image == null) {
+				throw new BuildError("File " + this.path
+						+ " is not supported image!");
+			}
+		}
+		return this.image;
+	}
+
+	/**
+	 * Returns size of PNG image read from its header without decoding the
+	 * image.
+	 * 
+	 * @return size of image or null if file is not PNG image
+	 * @throws BuildError
+	 *             when file can't be read
+	 */
+	public Dimension getPngSize() throws BuildError {
+		if (this.image != null) {
+			return new Dimension(this.image.getWidth(), this.image.getHeight());
+		}
+		try (InputStream in = this.openStream()) {
+			return ImageCodecs.readPngSize(in);
+		} catch (IOException e) {
+			throw new BuildError("Can't read image " + this.path + "!", e);
+		}
+	}
+
+	/**
+	 * Decodes PNG image with specified subsampling, so copies of this file
+	 * made afterwards share it. Image is decoded fully when subsampling is
+	 * less than two.
+	 * 
+	 * @param subsampling
+	 *            how many times image is subsampled in each direction
+	 * @throws BuildError
+	 *             when file can't be read or is not supported image
+	 */
+	public void decodeImage(int subsampling) throws BuildError {
+		if (subsampling < 2) {
+			this.getImage();
+			return;
+		}
+		try (InputStream in = this.openStream()) {
+			this.subsampledImage = ImageCodecs.read(in, "png", subsampling);
+		} catch (IOException e) {
+			throw new BuildError("Can't read image " + this.path + "!", e);
+		}
+		this.subsampling = subsampling;
+	}
+
+	/**
+	 * Returns image decoded by {@link #decodeImage(int)} or by
+	 * {@link #getImage()} if it is not subsampled more than specified
+	 * subsampling.
+	 * 
+	 * @param subsampling
+	 *            highest acceptable subsampling
+	 * @return decoded image or null
+	 */
+	public BufferedImage getSubsampledImage(int subsampling) {
+		if (this.image != null) {
+			return this.image;
+		}
+		if (this.subsampledImage != null && this.subsampling <= subsampling) {
+			return this.subsampledImage;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns whether extension of this file is name of image format which
+	 * can be decoded by {@link #getImage()}.
+	 * 
+	 * @return true if file is image
+	 */
+	public boolean isImage() {
+		return ImageCodecs.canRead(this.getFormat());
+	}
+
+	private String getFormat() {
+		String name = this.path.getFileName().toString();
+		return name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+	}
+
+	/**
+	 * Returns image decoded or set by previous compiler without decoding the
+	 * contents.
+	 * 
+	 * @return decoded image or null if contents were not decoded yet
+	 */
+	public BufferedImage getDecodedImage() {
+		return this.image;
+	}
+
+	/**
+	 * Sets contents of this file to specified image. Image is encoded when
+	 * contents are accessed.
+	 * 
+	 * @param image
+	 *            new contents
+	 * @param format
+	 *            informal name of image format, for example png
+	 */
+	public void setImage(BufferedImage image, String format) {
+		this.setView();
+		this.image = image;
+		this.imageFormat = format;
+	}
+
+	/**
+	 * Returns copy of this file which shares its contents and decoded image,
+	 * so another compiler chain can compile the copy without reading or
+	 * decoding the file again. Compilers never change decoded image, they set
+	 * new one.
+	 * 
+	 * @return copy of this file
+	 * @throws BuildError
+	 *             when changed view can't be serialized
+	 */
+	public OpenedFile copy() throws BuildError {
+		this.serializeView();
+		OpenedFile copy = new OpenedFile(this.path, this.contents,
+				this.modified);
+		if (this.mapped != null) {
+			copy.mapped = this.mapped.duplicate();
+		}
+		copy.image = this.image;
+		copy.subsampledImage = this.subsampledImage;
+		copy.subsampling = this.subsampling;
+		return copy;
+	}
+
+	private void setView() {
+		this.contents = null;
+		this.mapped = null;
+		this.modified = true;
+		this.json = null;
+		this.image = null;
+		this.subsampledImage = null;
+		this.viewModified = true;
+	}
+
+	private void serializeView() throws BuildError {
+		if (!this.viewModified) {
+			return;
+		}
+		if (this.json != null) {
+			this.contents = this.json.toString().getBytes(this.charset);
+		} else {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try {
+				if (!ImageCodecs.write(this.image, this.imageFormat, out)) {
+					throw new BuildError("Can't write image " + this.path
+							+ " in format " + this.imageFormat + "!");
+				}
+			} catch (IOException e) {
+				throw new BuildError("Can't write image " + this.path + "!", e);
+			}
+			this.contents = out.toByteArray();
+		}
+		this.viewModified = false;
+	}
+
+	/**
+	 * Returns whether contents were changed or set, so they differ from
+	 * contents of file on disk.
+	 * 
+	 * @return true if file needs to be saved
+	 */
+	public boolean isModified() {
+		return modified;
 	}
 
 	public void save() throws BuildError {
+		if (!this.modified) {
+			// File on disk is up to date.
+			return;
+		}
+		this.serializeView();
 		try {
 			Files.write(this.path, this.contents);
 		} catch (Exception e) {
@@ -0,0 +1,515 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.matejkormuth.rpbuild.exceptions.BuildError;
+
+/**
+ * Represents two layered view of project files. Files are read from the upper
+ * layer when they exist there, otherwise from the lower layer. All files
+ * written by the build are written to the upper layer, so the lower layer is
+ * never modified.
+ * <p>
+ * When both layers are the same directory, overlay behaves like plain
+ * directory.
+ * <p>
+ * Files saved to the upper layer can be kept in memory instead, see
+ * {@link #setMemory(long, long)}. Such files have paths in the upper layer, but
+ * they don't exist on disk, so they have to be read with
+ * {@link #open(Path)} or {@link #read(Path)}.
+ */
+public class Overlay {
+	private static final Logger log = LoggerFactory.getLogger(Overlay.class);
+
+	// Amount of files copied by one task when copying in parallel.
+	private static final int COPY_BATCH = 64;
+
+	private final Path lower;
+	private final Path upper;
+
+	// Files of upper layer kept in memory by their path in upper layer or
+	// null when all files are on disk.
+	private Map<Path, byte[]> memory;
+	private long memoryFileLimit;
+	private long memoryBudget;
+	private long memoryUsed;
+
+	/**
+	 * Creates new overlay.
+	 * 
+	 * @param lower
+	 *            read only directory with source files
+	 * @param upper
+	 *            writable directory for build outputs
+	 */
+	public Overlay(Path lower, Path upper) {
+		this.lower = lower.toAbsolutePath().normalize();
+		this.upper = upper.toAbsolutePath().normalize();
+	}
+
+	/**
+	 * Returns path of file specified by relative path. Path in upper layer is
+	 * returned when the file exists there, otherwise path in lower layer is
+	 * returned.
+	 * 
+	 * @param relative
+	 *            path relative to resource pack root
+	 * @return absolute path in one of the layers
+	 */
+	public Path resolve(String relative) {
+		return this.resolve(Paths.get(relative));
+	}
+
+	/**
+	 * Returns path of file specified by relative path. Path in upper layer is
+	 * returned when the file exists there, otherwise path in lower layer is
+	 * returned.
+	 * 
+	 * @param relative
+	 *            path relative to resource pack root
+	 * @return absolute path in one of the layers
+	 */
+	public Path resolve(Path relative) {
+		Path upperPath = this.upper.resolve(relative);
+		if (this.isLayered() && this.read(upperPath) == null
+				&& !Files.exists(upperPath)) {
+			return this.lower.resolve(relative);
+		}
+		return upperPath;
+	}
+
+	/**
+	 * Returns path relative to resource pack root for path in any layer.
+	 * 
+	 * @param path
+	 *            path in one of the layers
+	 * @return path relative to resource pack root
+	 */
+	public Path relativize(Path path) {
+		Path absolute = path.toAbsolutePath().normalize();
+		if (absolute.startsWith(this.upper)) {
+			return this.upper.relativize(absolute);
+		}
+		return this.lower.relativize(absolute);
+	}
+
+	/**
+	 * Returns path in upper layer that corresponds to specified path.
+	 * 
+	 * @param path
+	 *            path in one of the layers
+	 * @return path in upper layer
+	 */
+	public Path toUpper(Path path) {
+		return this.upper.resolve(this.relativize(path));
+	}
+
+	/**
+	 * Saves specified file to upper layer. Files which were not modified are
+	 * not saved, they are still read from their layer.
+	 * 
+	 * @param file
+	 *            file to save
+	 * @return path from which contents of the file can be read now
+	 * @throws BuildError
+	 *             when file can't be written
+	 */
+	public Path save(OpenedFile file) throws BuildError {
+		if (!file.isModified()) {
+			return file.getPath();
+		}
+		Path target = this.toUpper(file.getPath());
+		byte[] contents = file.getContents();
+		if (!this.keep(target, contents)) {
+			write(target, contents);
+		}
+		return target;
+	}
+
+	/**
+	 * Keeps files saved to upper layer in memory instead of writing them to
+	 * disk. Bigger files are still written to disk. When files in memory would
+	 * take more than specified budget, all of them are written to disk and
+	 * memory is not used anymore.
+	 * 
+	 * @param fileLimit
+	 *            size in bytes of biggest file kept in memory
+	 * @param budget
+	 *            size in bytes of all files kept in memory
+	 */
+	public synchronized void setMemory(long fileLimit, long budget) {
+		this.memory = new TreeMap<Path, byte[]>();
+		this.memoryFileLimit = fileLimit;
+		this.memoryBudget = budget;
+		this.memoryUsed = 0;
+	}
+
+	/**
+	 * Opens file at specified path. File kept in memory is not read from
+	 * disk.
+	 * 
+	 * @param path
+	 *            path of file in one of the layers
+	 * @return opened file
+	 * @throws BuildError
+	 *             when file can't be opened
+	 */
+	public OpenedFile open(Path path) throws BuildError {
+		byte[] contents = this.read(path);
+		if (contents != null) {
+			return new OpenedFile(path, contents, false);
+		}
+		return new OpenedFile(path);
+	}
+
+	/**
+	 * Returns contents of file kept in memory.
+	 * 
+	 * @param path
+	 *            path of file in upper layer
+	 * @return contents of file or null when the file is not kept in memory
+	 */
+	public synchronized byte[] read(Path path) {
+		if (this.memory == null) {
+			return null;
+		}
+		return this.memory.get(path);
+	}
+
+	/**
+	 * Returns whether file exists in any layer.
+	 * 
+	 * @param relative
+	 *            path relative to resource pack root
+	 * @return true if file exists
+	 */
+	public boolean exists(Path relative) {
+		Path path = this.resolve(relative);
+		return this.read(path) != null || Files.exists(path);
+	}
+
+	/**
+	 * Returns paths of all files kept in memory, sorted.
+	 * 
+	 * @return paths in upper layer
+	 */
+	public synchronized List<Path> getMemoryFiles() {
+		if (this.memory == null) {
+			return Collections.emptyList();
+		}
+		return new ArrayList<Path>(this.memory.keySet());
+	}
+
+	/**
+	 * Returns size of all files kept in memory.
+	 * 
+	 * @return size in bytes
+	 */
+	public synchronized long getMemoryUsed() {
+		return this.memoryUsed;
+	}
+
+	/**
+	 * Forgets files kept in memory at specified path or in directory at
+	 * specified path. Files on disk are not deleted.
+	 * 
+	 * @param relative
+	 *            path relative to resource pack root
+	 * @throws BuildError
+	 *             never, files are not written
+	 */
+	public synchronized void discard(Path relative) throws BuildError {
+		this.remove(relative, false);
+	}
+
+	/**
+	 * Writes files kept in memory in specified directory to upper layer on
+	 * disk. Other files are still kept in memory.
+	 * 
+	 * @param relative
+	 *            directory relative to resource pack root
+	 * @throws BuildError
+	 *             when file can't be written
+	 */
+	public synchronized void spill(Path relative) throws BuildError {
+		this.remove(relative, true);
+	}
+
+	private void remove(Path relative, boolean write) throws BuildError {
+		if (this.memory == null) {
+			return;
+		}
+		Path path = this.upper.resolve(relative);
+		Iterator<Map.Entry<Path, byte[]>> it = this.memory.entrySet()
+				.iterator();
+		while (it.hasNext()) {
+			Map.Entry<Path, byte[]> entry = it.next();
+			if (entry.getKey().startsWith(path)) {
+				if (write) {
+					write(entry.getKey(), entry.getValue());
+				}
+				this.memoryUsed -= entry.getValue().length;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Writes all files kept in memory to upper layer on disk. Files saved
+	 * later are written to disk too.
+	 * 
+	 * @throws BuildError
+	 *             when file can't be written
+	 */
+	public synchronized void spill() throws BuildError {
+		if (this.memory == null) {
+			return;
+		}
+		for (Map.Entry<Path, byte[]> entry : this.memory.entrySet()) {
+			write(entry.getKey(), entry.getValue());
+		}
+		this.memory = null;
+		this.memoryUsed = 0;
+	}
+
+	// Returns false when file has to be written to disk.
+	private synchronized boolean keep(Path target, byte[] contents)
+			throws BuildError {
+		if (this.memory == null) {
+			return false;
+		}
+		byte[] previous = this.memory.remove(target);
+		if (previous != null) {
+			this.memoryUsed -= previous.length;
+		}
+		if (contents.length > this.memoryFileLimit) {
+			return false;
+		}
+		if (this.memoryUsed + contents.length > this.memoryBudget) {
+			log.info("Staged files don't fit to {} KB of memory, writing them to disk.",
+					this.memoryBudget / 1024);
+			this.spill();
+			return false;
+		}
+		this.memory.put(target, contents);
+		this.memoryUsed += contents.length;
+		return true;
+	}
+
+	private static void write(Path target, byte[] contents) throws BuildError {
+		try {
+			Files.createDirectories(target.getParent());
+			Files.write(target, contents);
+		} catch (IOException e) {
+			throw new BuildError("Can't save file " + target + "!", e);
+		}
+	}
+
+	/**
+	 * Copies directory with all its contents from lower layer to upper layer.
+	 * Files already present in upper layer are kept.
+	 * 
+	 * @param directory
+	 *            directory in one of the layers
+	 * @return path of directory in upper layer
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public Path copyUp(Path directory) throws IOException {
+		Path relative = this.relativize(directory);
+		Path target = this.upper.resolve(relative);
+		if (this.isLayered()) {
+			copyTree(this.lower.resolve(relative), target);
+		}
+		return target;
+	}
+
+	/**
+	 * Returns layers in order in which they should be searched for files.
+	 * Files found in later layers override files found in earlier layers.
+	 * 
+	 * @return lower and upper layer or only one layer when both are same
+	 */
+	public Path[] getLayers() {
+		if (this.isLayered()) {
+			return new Path[] { this.lower, this.upper };
+		}
+		return new Path[] { this.upper };
+	}
+
+	public Path getLower() {
+		return lower;
+	}
+
+	public Path getUpper() {
+		return upper;
+	}
+
+	/**
+	 * Returns whether lower and upper layer are different directories.
+	 * 
+	 * @return true if this overlay has two layers
+	 */
+	public boolean isLayered() {
+		return !this.lower.equals(this.upper);
+	}
+
+	/**
+	 * Copies directory tree without .git folders. Existing files in target
+	 * directory are not overwritten.
+	 * 
+	 * @param source
+	 *            source directory
+	 * @param target
+	 *            target directory
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static void copyTree(final Path source, final Path target)
+			throws IOException {
+		copyTree(source, target, null);
+	}
+
+	/**
+	 * Copies directory tree without .git folders. Existing files in target
+	 * directory are not overwritten. When pool is specified, directories are
+	 * listed and files are copied in parallel.
+	 * 
+	 * @param source
+	 *            source directory
+	 * @param target
+	 *            target directory
+	 * @param pool
+	 *            fork/join pool or null to copy in calling thread
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public static void copyTree(final Path source, final Path target,
+			ForkJoinPool pool) throws IOException {
+		final List<Path> files = new ArrayList<Path>();
+		FileVisitor<Path> visitor = new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(final Path dir,
+					final BasicFileAttributes attrs) throws IOException {
+
+				// Ignore .git direcoties, we do not need to copy them.
+				if (isGitDirectory(dir)) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+
+				Files.createDirectories(target.resolve(source.relativize(dir)));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(final Path file,
+					final BasicFileAttributes attrs) throws IOException {
+				files.add(file);
+				return FileVisitResult.CONTINUE;
+			}
+		};
+
+		TreeWalker.walk(pool, source, new DirectoryStream.Filter<Path>() {
+			@Override
+			public boolean accept(Path dir) {
+				return !isGitDirectory(dir);
+			}
+		}, visitor);
+		if (pool == null) {
+			copyFiles(source, target, files, 0, files.size());
+			return;
+		}
+
+		// Copy files in batches, directories were already created.
+		List<Callable<Void>> batches = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < files.size(); i += COPY_BATCH) {
+			final int from = i;
+			final int to = Math.min(files.size(), i + COPY_BATCH);
+			batches.add(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					copyFiles(source, target, files, from, to);
+					return null;
+				}
+			});
+		}
+		for (Future<Void> batch : pool.invokeAll(batches)) {
+			try {
+				batch.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while copying files!", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IOException(e.getCause());
+			}
+		}
+	}
+
+	private static boolean isGitDirectory(Path dir) {
+		return dir.getFileName() != null
+				&& dir.getFileName().toString().equalsIgnoreCase(".git");
+	}
+
+	private static void copyFiles(Path source, Path target, List<Path> files,
+			int from, int to) throws IOException {
+		for (int i = from; i < to; i++) {
+			Path file = files.get(i);
+			Path copy = target.resolve(source.relativize(file));
+			if (!Files.exists(copy)) {
+				Files.copy(file, copy);
+			}
+		}
+	}
+}
@@ -0,0 +1,600 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Simple HTTP server that serves built archive and its SHA-1 hash.
+ * <p>
+ * Archive is sent from file channel straight to socket using
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * so its contents are never copied to Java heap. SHA-1 hash of the archive,
+ * read from hash file written by the build when it matches the archive, is
+ * used as ETag, so clients that already have the latest archive get
+ * <code>304 Not Modified</code>. Single byte ranges are supported, so
+ * interrupted downloads can be resumed.
+ * <p>
+ * When the archive is replaced by new build, new requests get the new archive.
+ * Requests that already started are finished with the file they opened, so
+ * nobody gets mix of two archives.
+ */
+public class PackServer {
+	private static final Logger log = LoggerFactory.getLogger(PackServer.class);
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	// Maximum length of request line and headers.
+	private static final int MAX_HEADER_SIZE = 8 * 1024;
+	// Time in milliseconds to wait for request.
+	private static final int READ_TIMEOUT = 10 * 1000;
+
+	private final Path archive;
+	private final InetSocketAddress address;
+	private final ExecutorService workers;
+	// Connections being handled, new connections are not accepted until one
+	// of them is finished, so they wait in backlog of the socket.
+	private final Semaphore connections;
+	// Archive currently being served or null if it was not opened yet.
+	private Snapshot current;
+	private ServerSocketChannel server;
+
+	/**
+	 * Creates new server.
+	 * 
+	 * @param archive
+	 *            archive to serve
+	 * @param address
+	 *            address to listen on
+	 * @param threads
+	 *            number of requests handled at once
+	 */
+	public PackServer(Path archive, InetSocketAddress address, int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads must be positive");
+		}
+		this.archive = archive.toAbsolutePath().normalize();
+		this.address = address;
+		this.workers = Executors.newFixedThreadPool(threads);
+		this.connections = new Semaphore(threads);
+	}
+
+	/**
+	 * Starts listening on server address.
+	 * 
+	 * @throws IOException
+	 *             if the address can't be bound
+	 */
+	public void start() throws IOException {
+		this.server = ServerSocketChannel.open();
+		this.server.socket().setReuseAddress(true);
+		this.server.bind(this.address);
+		log.info("Serving {} on http://{}:{}/{}", this.archive,
+				this.address.getHostString(), this.getPort(),
+				this.archive.getFileName());
+	}
+
+	/**
+	 * Accepts connections until the server is stopped.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while all workers are busy
+	 */
+	public void run() throws IOException, InterruptedException {
+		while (this.server.isOpen()) {
+			this.connections.acquire();
+			final SocketChannel client;
+			try {
+				client = this.server.accept();
+			} catch (IOException e) {
+				this.connections.release();
+				if (!this.server.isOpen()) {
+					// Server was stopped.
+					break;
+				}
+				throw e;
+			}
+			this.workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						handle(client);
+					} finally {
+						connections.release();
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Stops the server. Requests in progress are finished.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	public void stop() throws IOException {
+		this.server.close();
+		this.workers.shutdown();
+	}
+
+	/**
+	 * Returns port the server listens on.
+	 * 
+	 * @return port number
+	 */
+	public int getPort() {
+		return this.server.socket().getLocalPort();
+	}
+
+	private void handle(SocketChannel client) {
+		try {
+			client.socket().setSoTimeout(READ_TIMEOUT);
+			Request request = Request.read(new BufferedInputStream(client
+					.socket().getInputStream()));
+			if (request == null) {
+				this.respond(client, "400 Bad Request", null);
+			} else {
+				this.respond(client, request);
+			}
+		} catch (IOException e) {
+			// Client went away, nothing to do.
+			log.debug("Can't handle request.", e);
+		} finally {
+			try {
+				client.close();
+			} catch (IOException e) {
+				log.debug("Can't close connection.", e);
+			}
+		}
+	}
+
+	private void respond(SocketChannel client, Request request)
+			throws IOException {
+		if (!request.method.equals("GET") && !request.method.equals("HEAD")) {
+			this.respond(client, "405 Method Not Allowed", null);
+			return;
+		}
+
+		String name = "/" + this.archive.getFileName();
+		boolean hash = request.path.equals(name + ZipArchive.SHA1_SUFFIX);
+		if (!hash && !request.path.equals(name)) {
+			this.respond(client, "404 Not Found", null);
+			return;
+		}
+
+		Snapshot snapshot = this.acquire();
+		if (snapshot == null) {
+			this.respond(client, "404 Not Found", null);
+			return;
+		}
+		try {
+			if (hash) {
+				this.respondHash(client, request, snapshot);
+			} else {
+				this.respondArchive(client, request, snapshot);
+			}
+		} finally {
+			snapshot.release();
+		}
+	}
+
+	private void respondHash(SocketChannel client, Request request,
+			Snapshot snapshot) throws IOException {
+		byte[] body = (snapshot.sha1 + "\n").getBytes(ASCII);
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("Content-Type", "text/plain");
+		headers.put("Content-Length", String.valueOf(body.length));
+		headers.put("Cache-Control", "no-cache");
+		this.writeHeaders(client, "200 OK", headers);
+		if (!request.isHead()) {
+			writeFully(client, ByteBuffer.wrap(body));
+		}
+	}
+
+	private void respondArchive(SocketChannel client, Request request,
+			Snapshot snapshot) throws IOException {
+		String etag = "\"" + snapshot.sha1 + "\"";
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("ETag", etag);
+		headers.put("Accept-Ranges", "bytes");
+
+		if (request.matchesEtag(etag)) {
+			this.writeHeaders(client, "304 Not Modified", headers);
+			return;
+		}
+
+		long start = 0;
+		long length = snapshot.size;
+		String status = "200 OK";
+		String range = request.headers.get("range");
+		String ifRange = request.headers.get("if-range");
+		if (range != null && (ifRange == null || ifRange.equals(etag))) {
+			long[] bounds = parseRange(range, snapshot.size);
+			if (bounds == null) {
+				headers.put("Content-Range", "bytes */" + snapshot.size);
+				this.respond(client, "416 Range Not Satisfiable", headers);
+				return;
+			}
+			// Empty array means range that we do not support.
+			if (bounds.length == 2) {
+				start = bounds[0];
+				length = bounds[1] - bounds[0] + 1;
+				status = "206 Partial Content";
+				headers.put("Content-Range", "bytes " + bounds[0] + "-"
+						+ bounds[1] + "/" + snapshot.size);
+			}
+		}
+
+		headers.put("Content-Type", "application/zip");
+		headers.put("Content-Length", String.valueOf(length));
+		this.writeHeaders(client, status, headers);
+		if (request.isHead()) {
+			return;
+		}
+
+		long position = start;
+		long end = start + length;
+		while (position < end) {
+			long sent = snapshot.channel.transferTo(position, end - position,
+					client);
+			if (sent <= 0 && position < end) {
+				// Archive is shorter than expected.
+				throw new IOException("Can't send archive!");
+			}
+			position += sent;
+		}
+	}
+
+	/**
+	 * Parses value of Range header.
+	 * 
+	 * @return first and last byte of range, empty array when the range should
+	 *         be ignored and whole file sent or null if range can't be
+	 *         satisfied
+	 */
+	static long[] parseRange(String range, long size) {
+		if (!range.startsWith("bytes=") || range.indexOf(',') != -1) {
+			// Other units and multiple ranges are not supported.
+			return new long[0];
+		}
+		String spec = range.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash == -1) {
+			return new long[0];
+		}
+		try {
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+			if (first.isEmpty()) {
+				// Suffix range, last n bytes.
+				long count = Long.parseLong(last);
+				if (count <= 0 || size == 0) {
+					return null;
+				}
+				return new long[] { Math.max(0, size - count), size - 1 };
+			}
+			long start = Long.parseLong(first);
+			long end = last.isEmpty() ? size - 1 : Math.min(
+					Long.parseLong(last), size - 1);
+			if (start >= size || end < start) {
+				return null;
+			}
+			return new long[] { start, end };
+		} catch (NumberFormatException e) {
+			return new long[0];
+		}
+	}
+
+	private void respond(SocketChannel client, String status,
+			Map<String, String> headers) throws IOException {
+		if (headers == null) {
+			headers = new HashMap<String, String>();
+		}
+		headers.put("Content-Length", "0");
+		this.writeHeaders(client, status, headers);
+	}
+
+	private void writeHeaders(SocketChannel client, String status,
+			Map<String, String> headers) throws IOException {
+		StringBuilder builder = new StringBuilder();
+		builder.append("HTTP/1.1 ").append(status).append("\r\n");
+		for (Map.Entry<String, String> header : headers.entrySet()) {
+			builder.append(header.getKey()).append(": ")
+					.append(header.getValue()).append("\r\n");
+		}
+		builder.append("Connection: close\r\n\r\n");
+		writeFully(client, ByteBuffer.wrap(builder.toString().getBytes(ASCII)));
+	}
+
+	private static void writeFully(SocketChannel client, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			client.write(buffer);
+		}
+	}
+
+	/**
+	 * Returns currently published archive. New archive is opened when file on
+	 * disk changed since last request. It is opened without holding the lock,
+	 * so other requests are not blocked when the archive has to be hashed.
+	 * 
+	 * @return retained snapshot or null if there is no archive
+	 */
+	private Snapshot acquire() throws IOException {
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(this.archive,
+					BasicFileAttributes.class);
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+
+		synchronized (this) {
+			if (this.current != null && this.current.matches(attributes)) {
+				this.current.retain();
+				return this.current;
+			}
+		}
+
+		Snapshot snapshot = Snapshot.open(this.archive, attributes);
+		synchronized (this) {
+			if (this.current != null && this.current.matches(attributes)) {
+				// Other request opened the same file meanwhile.
+				snapshot.release();
+			} else {
+				log.info("Serving new archive with SHA-1 {}.", snapshot.sha1);
+				if (this.current != null) {
+					this.current.release();
+				}
+				this.current = snapshot;
+			}
+
+			this.current.retain();
+			return this.current;
+		}
+	}
+
+	/**
+	 * Represents one version of archive. File stays open until all requests
+	 * using it are finished, even when it was replaced on disk.
+	 */
+	private static class Snapshot {
+		private final FileChannel channel;
+		private final long size;
+		// Attributes of file when it was opened.
+		private final long fileSize;
+		private final long modified;
+		private final Object fileKey;
+		private final String sha1;
+		// Server holds one reference until newer version is opened.
+		private final AtomicInteger references = new AtomicInteger(1);
+
+		private Snapshot(FileChannel channel, BasicFileAttributes attributes,
+				String sha1) throws IOException {
+			this.channel = channel;
+			this.size = channel.size();
+			this.fileSize = attributes.size();
+			this.modified = attributes.lastModifiedTime().toMillis();
+			this.fileKey = attributes.fileKey();
+			this.sha1 = sha1;
+		}
+
+		static Snapshot open(Path path, BasicFileAttributes attributes)
+				throws IOException {
+			FileChannel channel = FileChannel.open(path,
+					StandardOpenOption.READ);
+			try {
+				// When file was replaced after reading the attributes, they
+				// will not match and the new file is opened on next request.
+				String sha1 = readSha1(path, attributes);
+				if (sha1 == null) {
+					sha1 = Hashes.sha1(channel);
+				}
+				return new Snapshot(channel, attributes, sha1);
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Reads hash written next to the archive by the build. Hash file is
+		 * moved before the archive, so it is used only when it has same last
+		 * modified time as the archive and the archive was not replaced since
+		 * the attributes were read.
+		 * 
+		 * @return hash or null if the archive has to be hashed
+		 */
+		private static String readSha1(Path path, BasicFileAttributes attributes)
+				throws IOException {
+			Path sha1Path = Paths.get(path + ZipArchive.SHA1_SUFFIX);
+			long modified = attributes.lastModifiedTime().toMillis();
+			String sha1;
+			BasicFileAttributes now;
+			try {
+				sha1 = new String(Files.readAllBytes(sha1Path), ASCII).trim();
+				// Checked after reading, so newer hash file is not mistaken
+				// for the one that was read.
+				if (Files.getLastModifiedTime(sha1Path).toMillis() != modified) {
+					return null;
+				}
+				now = Files.readAttributes(path, BasicFileAttributes.class);
+			} catch (NoSuchFileException e) {
+				return null;
+			}
+
+			if (now.size() != attributes.size()
+					|| now.lastModifiedTime().toMillis() != modified
+					|| (attributes.fileKey() != null && !attributes.fileKey()
+							.equals(now.fileKey()))) {
+				return null;
+			}
+			return sha1.matches("[0-9a-f]{40}") ? sha1 : null;
+		}
+
+		boolean matches(BasicFileAttributes attributes) {
+			return this.fileSize == attributes.size()
+					&& this.modified == attributes.lastModifiedTime()
+							.toMillis()
+					&& (this.fileKey == null || this.fileKey.equals(attributes
+							.fileKey()));
+		}
+
+		void retain() {
+			this.references.incrementAndGet();
+		}
+
+		void release() {
+			if (this.references.decrementAndGet() == 0) {
+				try {
+					this.channel.close();
+				} catch (IOException e) {
+					log.debug("Can't close archive.", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Represents parsed HTTP request.
+	 */
+	private static class Request {
+		private String method;
+		private String path;
+		// Headers with lower case names.
+		private final Map<String, String> headers = new HashMap<String, String>();
+
+		/**
+		 * Reads request line and headers from stream.
+		 * 
+		 * @return parsed request or null if request is malformed
+		 */
+		static Request read(InputStream in) throws IOException {
+			StringBuilder line = new StringBuilder();
+			Request request = null;
+			int total = 0;
+			int c;
+			while ((c = in.read()) != -1) {
+				if (++total > MAX_HEADER_SIZE) {
+					return null;
+				}
+				if (c == '\r') {
+					continue;
+				}
+				if (c != '\n') {
+					line.append((char) c);
+					continue;
+				}
+
+				if (line.length() == 0) {
+					// End of headers.
+					return request;
+				}
+				if (request == null) {
+					request = parseRequestLine(line.toString());
+					if (request == null) {
+						return null;
+					}
+				} else {
+					int colon = line.indexOf(":");
+					if (colon > 0) {
+						request.headers.put(line.substring(0, colon).trim()
+								.toLowerCase(), line.substring(colon + 1)
+								.trim());
+					}
+				}
+				line.setLength(0);
+			}
+			// Connection closed before end of headers.
+			return null;
+		}
+
+		private static Request parseRequestLine(String line) {
+			String[] parts = line.split(" ");
+			if (parts.length != 3) {
+				return null;
+			}
+			Request request = new Request();
+			request.method = parts[0];
+			request.path = parts[1];
+			// Query string is ignored.
+			int query = request.path.indexOf('?');
+			if (query != -1) {
+				request.path = request.path.substring(0, query);
+			}
+			return request;
+		}
+
+		boolean isHead() {
+			return this.method.equals("HEAD");
+		}
+
+		boolean matchesEtag(String etag) {
+			String header = this.headers.get("if-none-match");
+			if (header == null) {
+				return false;
+			}
+			for (String tag : header.split(",")) {
+				tag = tag.trim();
+				if (tag.startsWith("W/")) {
+					tag = tag.substring(2);
+				}
+				if (tag.equals("*") || tag.equals(etag)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,443 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates fake resource pack for load and scale testing. Generated pack
+ * contains block models with parent chains and particle textures, item
+ * models, PNG textures, dummy sounds in nested folders. Same seed and sizes
+ * always produce same files.
+ */
+public class PackSynthesizer {
+	private static final Logger log = LoggerFactory
+			.getLogger(PackSynthesizer.class);
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String[] FACES = { "down", "up", "north", "south",
+			"west", "east" };
+	private static final String[] SOUND_GROUPS = { "mob/zombie",
+			"mob/spider", "mob/villager/trade", "dig/stone", "step/grass",
+			"ambient/cave", "ambient/weather/rain", "random",
+			"custom/guns/pistol/fire", "custom/music/menu" };
+	// Maximal amount of synthesized models above block/cube_all in parent
+	// chain.
+	private static final int MAX_CHAIN = 4;
+
+	private final Random random;
+	private int models = 1000;
+	private int textures = 500;
+	private int sounds = 200;
+	private int resolution = 16;
+
+	// Names of already written textures and models.
+	private final List<String> blockTextures;
+	private final List<String> itemTextures;
+	private final List<String> chainModels;
+	private final List<Integer> chainDepths;
+
+	/**
+	 * Creates new synthesizer.
+	 * 
+	 * @param seed
+	 *            seed of generated contents
+	 */
+	public PackSynthesizer(long seed) {
+		this.random = new Random(seed);
+		this.blockTextures = new ArrayList<String>();
+		this.itemTextures = new ArrayList<String>();
+		this.chainModels = new ArrayList<String>();
+		this.chainDepths = new ArrayList<Integer>();
+	}
+
+	public void setModels(int models) {
+		this.models = models;
+	}
+
+	public void setTextures(int textures) {
+		this.textures = textures;
+	}
+
+	public void setSounds(int sounds) {
+		this.sounds = sounds;
+	}
+
+	/**
+	 * Sets width and height of generated textures in pixels.
+	 * 
+	 * @param resolution
+	 *            texture resolution
+	 */
+	public void setResolution(int resolution) {
+		this.resolution = resolution;
+	}
+
+	/**
+	 * Writes synthesized pack to specified folder. Existing files with same
+	 * names are overwritten.
+	 * 
+	 * @param root
+	 *            root folder of pack
+	 * @return amount of written files
+	 * @throws IOException
+	 *             when files can't be written
+	 */
+	public int synthesize(Path root) throws IOException {
+		this.blockTextures.clear();
+		this.itemTextures.clear();
+		this.chainModels.clear();
+		this.chainDepths.clear();
+
+		int count = 0;
+		for (int i = 0; i < this.textures; i++) {
+			// Every fifth texture is item texture.
+			if (i % 5 == 4) {
+				String name = "items/item_" + i;
+				this.write(root, "textures/" + name + ".png",
+						this.texture(this.resolution, true));
+				this.itemTextures.add(name);
+			} else {
+				String name = "blocks/texture_" + i;
+				this.write(root, "textures/" + name + ".png",
+						this.texture(this.resolution, false));
+				this.blockTextures.add(name);
+			}
+			count++;
+		}
+
+		count += this.writeBaseModels(root);
+		for (int i = 0; i < this.models; i++) {
+			if (i % 5 == 4) {
+				this.write(root, "models/item/item_" + i + ".json",
+						this.itemModel());
+			} else {
+				String name = "block/model_" + i;
+				this.write(root, "models/" + name + ".json",
+						this.blockModel(name));
+			}
+			count++;
+		}
+
+		for (int i = 0; i < this.sounds; i++) {
+			String group = SOUND_GROUPS[this.random
+					.nextInt(SOUND_GROUPS.length)];
+			String leaf = group.substring(group.lastIndexOf('/') + 1);
+			this.write(root, "sounds/" + group + "/" + leaf + "_" + i + ".ogg",
+					this.sound());
+			count++;
+		}
+
+		log.info("Synthesized {} textures, {} models and {} sounds.",
+				this.textures, this.models, this.sounds);
+		return count;
+	}
+
+	/**
+	 * Returns pretty printed block model with specified amount of elements,
+	 * which has block/block as parent.
+	 * 
+	 * @param elements
+	 *            amount of cuboid elements
+	 * @return contents of model file
+	 */
+	byte[] elementsModel(int elements) {
+		Map<String, Object> model = new LinkedHashMap<String, Object>();
+		model.put("parent", "block/block");
+		Map<String, Object> textures = new LinkedHashMap<String, Object>();
+		textures.put("particle", this.blockTexture());
+		for (String face : FACES) {
+			textures.put(face, this.blockTexture());
+		}
+		model.put("textures", textures);
+
+		List<Object> array = new ArrayList<Object>();
+		for (int i = 0; i < elements; i++) {
+			int x = this.random.nextInt(15);
+			int y = this.random.nextInt(15);
+			int z = this.random.nextInt(15);
+			int[] to = { x + 1 + this.random.nextInt(16 - x),
+					y + 1 + this.random.nextInt(16 - y),
+					z + 1 + this.random.nextInt(16 - z) };
+			array.add(element(new int[] { x, y, z }, to,
+					this.random.nextBoolean()));
+		}
+		model.put("elements", array);
+		return json(model);
+	}
+
+	/**
+	 * Returns PNG image made of randomly colored blocks, so it compresses like
+	 * a drawn texture and not like noise.
+	 * 
+	 * @param size
+	 *            width and height of image
+	 * @param transparent
+	 *            whether some blocks should be transparent
+	 * @return contents of PNG file
+	 * @throws IOException
+	 *             when image can't be encoded
+	 */
+	byte[] texture(int size, boolean transparent) throws IOException {
+		BufferedImage image = new BufferedImage(size, size,
+				BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		int block = Math.max(1, size / 16);
+		for (int x = 0; x < size; x += block) {
+			for (int y = 0; y < size; y += block) {
+				int argb = this.random.nextInt(0x1000000);
+				if (!transparent || this.random.nextInt(3) != 0) {
+					argb |= 0xff000000;
+				}
+				g.setColor(new Color(argb, true));
+				g.fillRect(x, y, block, block);
+			}
+		}
+		g.dispose();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", out);
+		return out.toByteArray();
+	}
+
+	private int writeBaseModels(Path root) throws IOException {
+		Map<String, Object> block = new LinkedHashMap<String, Object>();
+		block.put("ambientocclusion", true);
+		block.put("display", display());
+		this.write(root, "models/block/block.json", json(block));
+
+		Map<String, Object> cube = new LinkedHashMap<String, Object>();
+		cube.put("parent", "block/block");
+		List<Object> elements = new ArrayList<Object>();
+		elements.add(element(new int[] { 0, 0, 0 }, new int[] { 16, 16, 16 },
+				true));
+		cube.put("elements", elements);
+		this.write(root, "models/block/cube.json", json(cube));
+
+		Map<String, Object> cubeAll = new LinkedHashMap<String, Object>();
+		cubeAll.put("parent", "block/cube");
+		Map<String, Object> textures = new LinkedHashMap<String, Object>();
+		textures.put("particle", "#all");
+		for (String face : FACES) {
+			textures.put(face, "#all");
+		}
+		cubeAll.put("textures", textures);
+		this.write(root, "models/block/cube_all.json", json(cubeAll));
+
+		Map<String, Object> generated = new LinkedHashMap<String, Object>();
+		generated.put("parent", "builtin/generated");
+		generated.put("display", display());
+		this.write(root, "models/item/generated.json", json(generated));
+		return 4;
+	}
+
+	private byte[] blockModel(String name) {
+		int kind = this.random.nextInt(10);
+		if (kind < 3) {
+			return this.elementsModel(1 + this.random.nextInt(8));
+		}
+
+		Map<String, Object> model = new LinkedHashMap<String, Object>();
+		Map<String, Object> textures = new LinkedHashMap<String, Object>();
+		int depth = 1;
+		if (kind < 6 && !this.chainModels.isEmpty()) {
+			// Extend one of previous models and override some textures.
+			int parent = this.random.nextInt(this.chainModels.size());
+			depth = this.chainDepths.get(parent) + 1;
+			model.put("parent", this.chainModels.get(parent));
+			textures.put("particle", this.blockTexture());
+			for (String face : FACES) {
+				if (this.random.nextInt(3) == 0) {
+					textures.put(face, this.blockTexture());
+				}
+			}
+		} else {
+			model.put("parent", "block/cube_all");
+			textures.put("all", this.blockTexture());
+		}
+		model.put("textures", textures);
+
+		if (depth < MAX_CHAIN) {
+			this.chainModels.add(name);
+			this.chainDepths.add(depth);
+		}
+		return json(model);
+	}
+
+	private byte[] itemModel() {
+		Map<String, Object> model = new LinkedHashMap<String, Object>();
+		model.put("parent", "item/generated");
+		Map<String, Object> textures = new LinkedHashMap<String, Object>();
+		textures.put("layer0", pick(this.itemTextures, this.blockTextures,
+				"items/apple"));
+		model.put("textures", textures);
+		return json(model);
+	}
+
+	private String blockTexture() {
+		return pick(this.blockTextures, this.itemTextures, "blocks/stone");
+	}
+
+	private String pick(List<String> preferred, List<String> fallback,
+			String missing) {
+		List<String> list = preferred.isEmpty() ? fallback : preferred;
+		if (list.isEmpty()) {
+			return missing;
+		}
+		return list.get(this.random.nextInt(list.size()));
+	}
+
+	private byte[] sound() {
+		// Ogg capture pattern followed by garbage.
+		byte[] bytes = new byte[1024 + this.random.nextInt(3072)];
+		this.random.nextBytes(bytes);
+		bytes[0] = 'O';
+		bytes[1] = 'g';
+		bytes[2] = 'g';
+		bytes[3] = 'S';
+		return bytes;
+	}
+
+	private void write(Path root, String relative, byte[] contents)
+			throws IOException {
+		Path path = root.resolve("assets/minecraft").resolve(relative);
+		Files.createDirectories(path.getParent());
+		Files.write(path, contents);
+	}
+
+	private static Map<String, Object> element(int[] from, int[] to,
+			boolean cull) {
+		Map<String, Object> element = new LinkedHashMap<String, Object>();
+		element.put("from", from);
+		element.put("to", to);
+		Map<String, Object> faces = new LinkedHashMap<String, Object>();
+		for (String face : FACES) {
+			Map<String, Object> f = new LinkedHashMap<String, Object>();
+			f.put("uv", new int[] { 0, 0, 16, 16 });
+			f.put("texture", "#" + face);
+			if (cull) {
+				f.put("cullface", face);
+			}
+			faces.put(face, f);
+		}
+		element.put("faces", faces);
+		return element;
+	}
+
+	private static Map<String, Object> display() {
+		Map<String, Object> gui = new LinkedHashMap<String, Object>();
+		gui.put("rotation", new int[] { 30, 225, 0 });
+		gui.put("translation", new int[] { 0, 0, 0 });
+		gui.put("scale", new double[] { 0.625, 0.625, 0.625 });
+		Map<String, Object> display = new LinkedHashMap<String, Object>();
+		display.put("gui", gui);
+		return display;
+	}
+
+	// Keys are written in insertion order, so output does not depend on
+	// hashing of JSON library.
+	private static byte[] json(Map<String, Object> object) {
+		StringBuilder builder = new StringBuilder();
+		append(builder, object, 0);
+		builder.append('\n');
+		return builder.toString().getBytes(UTF_8);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void append(StringBuilder builder, Object value, int indent) {
+		if (value instanceof Map) {
+			builder.append('{');
+			String separator = "\n";
+			for (Map.Entry<String, Object> e : ((Map<String, Object>) value)
+					.entrySet()) {
+				builder.append(separator);
+				indent(builder, indent + 1);
+				builder.append('"').append(e.getKey()).append("\": ");
+				append(builder, e.getValue(), indent + 1);
+				separator = ",\n";
+			}
+			builder.append('\n');
+			indent(builder, indent);
+			builder.append('}');
+		} else if (value instanceof List) {
+			builder.append('[');
+			String separator = "\n";
+			for (Object o : (List<Object>) value) {
+				builder.append(separator);
+				indent(builder, indent + 1);
+				append(builder, o, indent + 1);
+				separator = ",\n";
+			}
+			builder.append('\n');
+			indent(builder, indent);
+			builder.append(']');
+		} else if (value instanceof int[]) {
+			int[] array = (int[]) value;
+			builder.append('[');
+			for (int i = 0; i < array.length; i++) {
+				builder.append(i == 0 ? "" : ", ").append(array[i]);
+			}
+			builder.append(']');
+		} else if (value instanceof double[]) {
+			double[] array = (double[]) value;
+			builder.append('[');
+			for (int i = 0; i < array.length; i++) {
+				builder.append(i == 0 ? "" : ", ").append(array[i]);
+			}
+			builder.append(']');
+		} else if (value instanceof String) {
+			builder.append('"').append(value).append('"');
+		} else {
+			builder.append(value);
+		}
+	}
+
+	private static void indent(StringBuilder builder, int indent) {
+		for (int i = 0; i < indent; i++) {
+			builder.append("    ");
+		}
+	}
+}
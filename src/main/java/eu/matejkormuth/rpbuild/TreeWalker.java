@@ -0,0 +1,244 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Walks file tree like {@link Files#walkFileTree(Path, FileVisitor)}, but
+ * directories are listed in parallel on fork/join pool. Visitor is called
+ * from the calling thread after whole tree is listed. Entries of each
+ * directory are visited sorted by name, so results depend neither on timing
+ * of threads nor on order in which file system lists directories.
+ */
+class TreeWalker {
+	private static final Comparator<Entry> BY_NAME = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			return a.path.getFileName().toString()
+					.compareTo(b.path.getFileName().toString());
+		}
+	};
+
+	private TreeWalker() {
+	}
+
+	/**
+	 * Walks file tree rooted at specified path.
+	 * 
+	 * @param pool
+	 *            pool that lists directories or null to list them in calling
+	 *            thread
+	 * @param start
+	 *            starting file
+	 * @param filter
+	 *            directories which are listed or null to list all of them.
+	 *            Visitor must skip subtree of directories which are not
+	 *            accepted, because they are reported as empty
+	 * @param visitor
+	 *            file visitor
+	 * @throws IOException
+	 *             if an I/O error is thrown by a visitor method
+	 */
+	static void walk(ForkJoinPool pool, Path start,
+			DirectoryStream.Filter<? super Path> filter,
+			FileVisitor<? super Path> visitor) throws IOException {
+		Entry root = new Entry(start);
+		try {
+			root.attrs = readAttributes(start);
+		} catch (IOException e) {
+			root.error = e;
+		}
+		if (root.attrs != null && root.attrs.isDirectory()) {
+			ListTask task = new ListTask(root, filter);
+			if (pool == null) {
+				task.list(false);
+			} else {
+				pool.invoke(task);
+			}
+		}
+		replay(root, visitor);
+	}
+
+	private static BasicFileAttributes readAttributes(Path path)
+			throws IOException {
+		return Files.readAttributes(path, BasicFileAttributes.class,
+				LinkOption.NOFOLLOW_LINKS);
+	}
+
+	// Returns what should parent directory do with remaining entries.
+	private static FileVisitResult replay(Entry entry,
+			FileVisitor<? super Path> visitor) throws IOException {
+		if (entry.error != null) {
+			return sibling(visitor.visitFileFailed(entry.path, entry.error));
+		}
+		if (!entry.attrs.isDirectory()) {
+			return sibling(visitor.visitFile(entry.path, entry.attrs));
+		}
+
+		FileVisitResult result = visitor.preVisitDirectory(entry.path,
+				entry.attrs);
+		if (result != FileVisitResult.CONTINUE) {
+			return sibling(result);
+		}
+		if (entry.children != null) {
+			for (Entry child : entry.children) {
+				result = replay(child, visitor);
+				if (result == FileVisitResult.TERMINATE) {
+					return result;
+				} else if (result == FileVisitResult.SKIP_SIBLINGS) {
+					break;
+				}
+			}
+		}
+		return sibling(visitor.postVisitDirectory(entry.path,
+				entry.iterationError));
+	}
+
+	private static FileVisitResult sibling(FileVisitResult result) {
+		// Skipping subtree of file or visited directory means nothing.
+		if (result == FileVisitResult.SKIP_SUBTREE) {
+			return FileVisitResult.CONTINUE;
+		}
+		return result;
+	}
+
+	/**
+	 * File found in walked tree.
+	 */
+	private static class Entry {
+		private final Path path;
+		private BasicFileAttributes attrs;
+		// Error thrown while reading attributes or opening directory.
+		private IOException error;
+		// Error thrown while iterating over directory.
+		private IOException iterationError;
+		// Entries of directory sorted by name.
+		private List<Entry> children;
+
+		private Entry(Path path) {
+			this.path = path;
+		}
+	}
+
+	/**
+	 * Lists directory and forks task for each its subdirectory, or lists
+	 * subdirectories in the same thread.
+	 */
+	private static class ListTask extends RecursiveAction {
+		private static final long serialVersionUID = -2771326013245402148L;
+
+		private final Entry directory;
+		private final DirectoryStream.Filter<? super Path> filter;
+
+		private ListTask(Entry directory,
+				DirectoryStream.Filter<? super Path> filter) {
+			this.directory = directory;
+			this.filter = filter;
+		}
+
+		@Override
+		protected void compute() {
+			this.list(true);
+		}
+
+		private void list(boolean parallel) {
+			try {
+				if (this.filter != null
+						&& !this.filter.accept(this.directory.path)) {
+					return;
+				}
+			} catch (IOException e) {
+				this.directory.error = e;
+				return;
+			}
+
+			DirectoryStream<Path> stream;
+			try {
+				stream = Files.newDirectoryStream(this.directory.path);
+			} catch (IOException e) {
+				this.directory.error = e;
+				return;
+			}
+
+			List<Entry> children = new ArrayList<Entry>();
+			List<ListTask> tasks = new ArrayList<ListTask>();
+			try {
+				for (Path path : stream) {
+					Entry child = new Entry(path);
+					try {
+						child.attrs = readAttributes(path);
+					} catch (IOException e) {
+						child.error = e;
+					}
+					if (child.attrs != null && child.attrs.isDirectory()) {
+						ListTask task = new ListTask(child, this.filter);
+						if (parallel) {
+							task.fork();
+							tasks.add(task);
+						} else {
+							task.list(false);
+						}
+					}
+					children.add(child);
+				}
+			} catch (DirectoryIteratorException e) {
+				this.directory.iterationError = e.getCause();
+			} finally {
+				try {
+					stream.close();
+				} catch (IOException e) {
+					if (this.directory.iterationError == null) {
+						this.directory.iterationError = e;
+					}
+				}
+			}
+
+			for (int i = tasks.size() - 1; i >= 0; i--) {
+				tasks.get(i).join();
+			}
+			Collections.sort(children, BY_NAME);
+			this.directory.children = children;
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches source directory of built project and rebuilds project when files
+ * in it change. Changes are collected until there are no new changes for a
+ * while, so saving many files at once causes only one rebuild.
+ */
+public class Watcher {
+	private static final Logger log = LoggerFactory.getLogger(Watcher.class);
+
+	// Time in milliseconds without changes after which rebuild starts.
+	private static final long QUIET_PERIOD = 300;
+
+	private final Assembler assembler;
+	private final Path root;
+	// Watched directories by their keys.
+	private final Map<WatchKey, Path> directories;
+	private WatchService service;
+
+	/**
+	 * Creates new watcher for project built by specified assembler.
+	 * 
+	 * @param assembler
+	 *            assembler which already built the project
+	 */
+	public Watcher(Assembler assembler) {
+		this.assembler = assembler;
+		this.root = assembler.getSourceRoot();
+		this.directories = new HashMap<WatchKey, Path>();
+	}
+
+	/**
+	 * Watches source directory and rebuilds project on changes. This method
+	 * does not return until the thread is interrupted.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 * @throws InterruptedException
+	 *             if thread was interrupted while waiting for changes
+	 */
+	public void watch() throws IOException, InterruptedException {
+		this.service = this.root.getFileSystem().newWatchService();
+		try {
+			this.register(this.root, null);
+			log.info("Watching {} for changes...", this.root);
+
+			while (true) {
+				Set<Path> changed = new TreeSet<Path>();
+				// Wait for first change and then until changes stop coming.
+				WatchKey key = this.service.take();
+				while (key != null) {
+					this.process(key, changed);
+					key = this.service.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS);
+				}
+
+				if (!changed.isEmpty()) {
+					log.info("Detected {} changed file(s).", changed.size());
+					this.assembler.rebuild(changed);
+					log.info("Watching {} for changes...", this.root);
+				}
+			}
+		} finally {
+			this.service.close();
+		}
+	}
+
+	private void process(WatchKey key, Set<Path> changed) throws IOException {
+		Path directory = this.directories.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				// Some events were lost, check everything.
+				log.warn("Too many changes at once, rebuilding all files.");
+				this.register(this.root, changed);
+				continue;
+			}
+
+			Path path = directory.resolve((Path) event.context());
+			if (event.kind() == ENTRY_CREATE
+					&& Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+				// Files could be created before directory was registered.
+				try {
+					this.register(path, changed);
+				} catch (NoSuchFileException e) {
+					// Directory was already deleted.
+				}
+			} else {
+				this.add(path, changed);
+			}
+		}
+
+		if (!key.reset()) {
+			// Directory is not accessible anymore.
+			this.directories.remove(key);
+		}
+	}
+
+	// Registers directory tree and adds its files to changed files when
+	// changed files are specified.
+	private void register(Path directory, final Set<Path> changed)
+			throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir,
+					BasicFileAttributes attrs) throws IOException {
+				if (dir.getFileName() != null
+						&& dir.getFileName().toString().equals(".git")) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				WatchKey key = dir.register(service, ENTRY_CREATE,
+						ENTRY_DELETE, ENTRY_MODIFY);
+				directories.put(key, dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file,
+					BasicFileAttributes attrs) throws IOException {
+				if (changed != null) {
+					add(file, changed);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private void add(Path path, Set<Path> changed) {
+		Path relative = this.root.relativize(path);
+		// Changes in .git folder and in the build output are not interesting.
+		for (Path part : relative) {
+			if (part.toString().equals(".git")) {
+				return;
+			}
+		}
+		if (!this.assembler.isExcluded(relative)) {
+			changed.add(relative);
+		}
+	}
+}
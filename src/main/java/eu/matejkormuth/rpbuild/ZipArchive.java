@@ -28,26 +28,123 @@
  */
 package eu.matejkormuth.rpbuild;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import eu.matejkormuth.rpbuild.api.CompressionPolicy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Class that creates zip file from specified input files.
+ * <p>
+ * When the archive already exists from previous build, compressed data of
+ * entries with unchanged contents are copied from it without inflating and
+ * deflating them again. Contents are compared by CRC, size and SHA-1 hash
+ * which is stored in index file next to the archive, so every file is still
+ * read and hashed, but unchanged files are not compressed again. The archive
+ * is written to temporary file and moved to its place on close, so readers
+ * never see partially written archive. SHA-1 hash of the archive is written
+ * to file next to it before the archive is moved. The hash file has same last
+ * modified time as the archive, so readers can tell whether it belongs to it.
+ * <p>
+ * Compression of entries can be chosen per file by compression policies.
+ * Files can be deflated at different levels, stored without compression (their
+ * data are copied from file straight to the archive) or compressed adaptively,
+ * in which case they are stored when deflate does not save enough space.
+ * <p>
+ * In deduplication mode, files with same contents are compressed only once,
+ * when first of them is added. Every file still has its own local header and
+ * copy of compressed data, so the archive can be read by any zip reader.
+ * <p>
+ * Entries can be compressed in parallel on thread pool. Compressed entries
+ * are still written by single thread in the order in which they were added,
+ * so the archive is always the same.
  */
 public class ZipArchive {
 	private static final Logger log = LoggerFactory.getLogger(ZipArchive.class);
+	private static final String COMMENT = "Generated by: rpbuild by dobrakmato. <http://github.com/dobrakmato>";
+
+	/**
+	 * Suffix of index file with hashes of entries stored next to the archive.
+	 */
+	public static final String INDEX_SUFFIX = ".index";
+	/**
+	 * Suffix of file with SHA-1 hash of the archive stored next to it.
+	 */
+	public static final String SHA1_SUFFIX = ".sha1";
+	private static final String TEMP_SUFFIX = ".tmp";
+	// Bigger files are not compressed to memory, but streamed by writer.
+	private static final long MAX_BUFFERED_SIZE = 8 * 1024 * 1024;
+	// Size of sample used to decide whether big file should be compressed.
+	private static final int SAMPLE_SIZE = 256 * 1024;
 
-	private ZipOutputStream stream;
-	private Path absolute;
+	private Overlay overlay;
+	private Path out;
+	private Path temp;
+	private int compressionLevel;
+	// Compression rules in order of priority, last one matches all files.
+	private List<CompressionRule> rules;
+	private FileChannel channel;
+	private ZipWriter writer;
+	// Hashes of entries in this archive.
+	private List<IndexEntry> index;
+
+	// Previous version of this archive or null if there is none.
+	private ZipIndex previous;
+	private Map<String, IndexEntry> previousByName;
+	private Map<String, IndexEntry> previousByHash;
+	private int reusedCount;
+	private long reusedBytes;
+
+	// Pool that hashes and compresses entries or null to do it while writing.
+	private ExecutorService pool;
+	private int window;
+	// Entries that are being hashed and entries that are being compressed,
+	// both in order they were added. Entries are moved to compression in this
+	// order, so first added file of files with same contents is compressed.
+	private Deque<Future<PreparedEntry>> hashing;
+	private Deque<Future<PreparedEntry>> pending;
+	// Hash of finished archive.
+	private String sha1;
+
+	// Written entries by SHA-1 of their contents and key of their compression
+	// rule or null if deduplication is disabled.
+	private Map<String, ZipWriter.Entry> written;
+	// Keys of contents of entries that were already moved to compression.
+	private Set<String> claimed;
+	private int duplicateCount;
+	private long duplicateBytes;
+	private int storedCount;
+	private long storedBytes;
 
 	/**
 	 * Creates new instance of ZIP archive.
@@ -57,17 +154,116 @@ public class ZipArchive {
 	 *            <code>addFile(Path relative)</code>.
 	 * @param out archive file
 	 * @param compressionLevel ZIP compression level
+	 * @throws IOException if archive file can't be created.
 	 */
-	public ZipArchive(Path absolutePath, File out, int compressionLevel) {
-		try {
-			this.stream = new ZipOutputStream(new FileOutputStream(out));
-			this.stream.setComment("Generated by: rpbuild by dobrakmato. <http://github.com/dobrakmato>");
-			this.stream.setLevel(compressionLevel);
-			this.stream.setMethod(ZipOutputStream.DEFLATED);
+	public ZipArchive(Path absolutePath, File out, int compressionLevel)
+			throws IOException {
+		this(new Overlay(absolutePath, absolutePath), out, compressionLevel);
+	}
 
-			this.absolute = absolutePath;
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+	/**
+	 * Creates new instance of ZIP archive.
+	 * 
+	 * @param overlay
+	 *            overlay that will be used to resolve entry names of added
+	 *            files
+	 * @param out archive file
+	 * @param compressionLevel ZIP compression level
+	 * @throws IOException if archive file can't be created.
+	 */
+	public ZipArchive(Overlay overlay, File out, int compressionLevel)
+			throws IOException {
+		this.overlay = overlay;
+		this.out = out.toPath().toAbsolutePath();
+		this.temp = Paths.get(this.out + TEMP_SUFFIX);
+		this.compressionLevel = compressionLevel;
+		this.rules = new ArrayList<CompressionRule>();
+		this.rules.add(CompressionRule.deflate(compressionLevel));
+		this.index = new ArrayList<IndexEntry>();
+
+		this.openPrevious();
+
+		this.channel = FileChannel.open(this.temp, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		this.writer = new ZipWriter(this.channel);
+	}
+
+	/**
+	 * Enables parallel compression of entries.
+	 * 
+	 * @param pool
+	 *            pool that will compress entries
+	 * @param window
+	 *            maximal number of entries that are hashed or compressed but
+	 *            not yet written
+	 */
+	public void setParallel(ExecutorService pool, int window) {
+		this.pool = pool;
+		this.window = window;
+		this.hashing = new ArrayDeque<Future<PreparedEntry>>(window + 1);
+		this.pending = new ArrayDeque<Future<PreparedEntry>>(window + 1);
+	}
+
+	/**
+	 * Sets policies that specify how files are compressed. First policy that
+	 * matches file is used. Files not matching any policy are deflated at
+	 * compression level of this archive. Must be called before any file is
+	 * added.
+	 * 
+	 * @param policies
+	 *            compression policies
+	 * @throws IllegalArgumentException
+	 *             if some policy is not valid
+	 */
+	public void setCompressionPolicies(CompressionPolicy[] policies) {
+		this.rules = createRules(policies, this.compressionLevel);
+	}
+
+	/**
+	 * Checks whether compression policies are valid without opening an
+	 * archive, so invalid configuration never replaces archive of previous
+	 * build.
+	 * 
+	 * @param policies
+	 *            compression policies
+	 * @param compressionLevel
+	 *            ZIP compression level
+	 * @throws IllegalArgumentException
+	 *             if some policy is not valid
+	 */
+	public static void checkCompressionPolicies(CompressionPolicy[] policies,
+			int compressionLevel) {
+		createRules(policies, compressionLevel);
+	}
+
+	private static List<CompressionRule> createRules(
+			CompressionPolicy[] policies, int compressionLevel) {
+		List<CompressionRule> rules = new ArrayList<CompressionRule>();
+		if (policies != null) {
+			for (CompressionPolicy policy : policies) {
+				rules.add(CompressionRule.of(policy, compressionLevel));
+			}
+		}
+		rules.add(CompressionRule.deflate(compressionLevel));
+		return rules;
+	}
+
+	/**
+	 * Sets whether files with same contents should be compressed only once.
+	 * Data of duplicate files are copied from first such file. Must be called
+	 * before any file is added.
+	 * 
+	 * @param deduplicate
+	 *            true to compress duplicate files only once
+	 */
+	public void setDeduplicate(boolean deduplicate) {
+		if (deduplicate) {
+			this.written = new HashMap<String, ZipWriter.Entry>();
+			this.claimed = new HashSet<String>();
+		} else {
+			this.written = null;
+			this.claimed = null;
 		}
 	}
 
@@ -79,24 +275,525 @@ public class ZipArchive {
 	 * @throws IOException if an I/O error occurs.
 	 */
 	public void addFile(Path path) throws IOException {
+		this.add(path, null);
+	}
+
+	/**
+	 * Adds file with specified contents to this zip archive. The file at
+	 * specified path is not read.
+	 * 
+	 * @param path
+	 *            path of file to be added
+	 * @param contents
+	 *            contents of the file
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void addFile(Path path, byte[] contents) throws IOException {
+		this.add(path, contents);
+	}
+
+	private void add(final Path path, byte[] data) throws IOException {
 		log.debug("Adding file: {}", path);
 
-		ZipEntry entry = new ZipEntry(this.absolute.relativize(
-				path.toAbsolutePath()).toString());
+		// Files kept in memory by overlay don't exist on disk.
+		final byte[] contents = data == null ? this.overlay.read(path) : data;
+
+		final String name = this.overlay.relativize(path).toString();
+		if (this.pool == null) {
+			PreparedEntry prepared = this.hash(name, path, contents);
+			this.claim(prepared);
+			this.compress(prepared, false);
+			this.write(prepared);
+			return;
+		}
+
+		this.hashing.add(this.pool.submit(new Callable<PreparedEntry>() {
+			@Override
+			public PreparedEntry call() throws Exception {
+				return hash(name, path, contents);
+			}
+		}));
+		this.startCompression(false);
+		if (this.hashing.size() + this.pending.size() > this.window) {
+			this.writeNext();
+		}
+	}
+
+	/**
+	 * Moves hashed entries to compression in order they were added.
+	 * 
+	 * @param wait
+	 *            true to wait until first entry is hashed
+	 */
+	private void startCompression(boolean wait) throws IOException {
+		while (!this.hashing.isEmpty()
+				&& (wait || this.hashing.peek().isDone())) {
+			final PreparedEntry prepared = await(this.hashing.poll());
+			this.claim(prepared);
+			this.pending.add(this.pool.submit(new Callable<PreparedEntry>() {
+				@Override
+				public PreparedEntry call() throws Exception {
+					compress(prepared, true);
+					return prepared;
+				}
+			}));
+			wait = false;
+		}
+	}
+
+	private void writeNext() throws IOException {
+		this.startCompression(this.pending.isEmpty());
+		this.write(await(this.pending.poll()));
+	}
 
-		this.stream.putNextEntry(entry);
-		this.stream.write(Files.readAllBytes(path));
-		this.stream.closeEntry();
+	/**
+	 * Marks entry as duplicate when file with same contents was added before
+	 * it. Called in order files were added.
+	 */
+	private void claim(PreparedEntry prepared) {
+		prepared.duplicate = this.claimed != null
+				&& !this.claimed.add(prepared.index.getContentKey());
 	}
 
 	/**
-	 * Closes this zip archive and underlying ZipOutputStream.
+	 * Hashes file and finds out whether its data can be reused from previous
+	 * archive. This method is called from multiple threads.
 	 */
-	public void close() {
+	private PreparedEntry hash(String name, Path path, byte[] contents)
+			throws IOException {
+		CompressionRule rule = this.getRule(name);
+		PreparedEntry prepared = new PreparedEntry(path, contents,
+				new IndexEntry(name, rule.getKey()), rule);
+
+		InputStream in = this.open(path, contents);
 		try {
-			this.stream.close();
+			prepared.index.hash(in);
+		} finally {
+			in.close();
+		}
+
+		prepared.reused = this.findReusable(prepared.index);
+		return prepared;
+	}
+
+	/**
+	 * Compresses hashed file unless its data are copied from previous archive
+	 * or from file with same contents. This method is called from multiple
+	 * threads.
+	 * 
+	 * @param compress
+	 *            false to leave deflating to writer, adaptive compression
+	 *            still compresses the file to decide whether to store it
+	 */
+	private void compress(PreparedEntry prepared, boolean compress)
+			throws IOException {
+		CompressionRule rule = prepared.rule;
+		if (prepared.duplicate || prepared.reused != null || rule.isStored()) {
+			return;
+		}
+
+		Path path = prepared.path;
+		byte[] contents = prepared.contents;
+		if (rule.isAdaptive() && prepared.index.size > MAX_BUFFERED_SIZE) {
+			// Decide by compressing only beginning of big file.
+			InputStream in = this.open(path, contents);
+			try {
+				byte[] sample = new byte[SAMPLE_SIZE];
+				int length = readFully(in, sample);
+				byte[] compressed = deflate(new ByteArrayInputStream(sample,
+						0, length), rule.getLevel());
+				prepared.stored = !rule.isWorthCompressing(length,
+						compressed.length);
+			} finally {
+				in.close();
+			}
+		} else if ((compress || rule.isAdaptive())
+				&& prepared.index.size <= MAX_BUFFERED_SIZE) {
+			InputStream in = this.open(path, contents);
+			try {
+				prepared.compressed = deflate(in, rule.getLevel());
+			} finally {
+				in.close();
+			}
+			if (rule.isAdaptive()
+					&& !rule.isWorthCompressing(prepared.index.size,
+							prepared.compressed.length)) {
+				prepared.compressed = null;
+				prepared.stored = true;
+			}
+		}
+	}
+
+	private CompressionRule getRule(String name) {
+		for (CompressionRule rule : this.rules) {
+			if (rule.matches(name)) {
+				return rule;
+			}
+		}
+		// Last rule matches all files.
+		throw new IllegalStateException();
+	}
+
+	private static int readFully(InputStream in, byte[] buffer)
+			throws IOException {
+		int total = 0;
+		int read;
+		while (total < buffer.length
+				&& (read = in.read(buffer, total, buffer.length - total)) != -1) {
+			total += read;
+		}
+		return total;
+	}
+
+	private void write(PreparedEntry prepared) throws IOException {
+		IndexEntry entry = prepared.index;
+		ZipWriter.Entry duplicate = this.written == null ? null : this.written
+				.get(entry.getContentKey());
+		if (duplicate != null) {
+			// Copy data which are already compressed.
+			this.writer.writeCopy(entry.name, duplicate);
+			this.index.add(entry);
+			this.duplicateCount++;
+			this.duplicateBytes += duplicate.size;
+			return;
+		}
+
+		ZipWriter.Entry data;
+		if (prepared.reused != null) {
+			data = prepared.reused;
+			data = this.writer.writeRaw(entry.name, data.method, data.crc,
+					data.compressedSize, data.size, this.previous.getChannel(),
+					this.previous.getDataPosition(data));
+			this.reusedCount++;
+			this.reusedBytes += data.size;
+		} else if (prepared.compressed != null) {
+			data = this.writer.writeCompressed(entry.name, ZipWriter.METHOD_DEFLATED,
+					entry.crc, entry.size, prepared.compressed);
+		} else if (prepared.stored || prepared.rule.isStored()) {
+			data = this.writeStored(prepared);
+			this.storedCount++;
+			this.storedBytes += entry.size;
+		} else {
+			// Stream file contents, so big files are not loaded to memory.
+			InputStream in = this.open(prepared.path, prepared.contents);
+			try {
+				data = this.writer.writeDeflated(entry.name, entry.crc,
+						entry.size, prepared.rule.getLevel(), in);
+			} finally {
+				in.close();
+			}
+		}
+		this.index.add(entry);
+		if (this.written != null) {
+			this.written.put(entry.getContentKey(), data);
+		}
+	}
+
+	private ZipWriter.Entry writeStored(PreparedEntry prepared)
+			throws IOException {
+		IndexEntry entry = prepared.index;
+		if (prepared.contents != null) {
+			return this.writer.writeCompressed(entry.name,
+					ZipWriter.METHOD_STORED, entry.crc, entry.size,
+					prepared.contents);
+		}
+
+		// Copy file straight to archive.
+		FileChannel source = FileChannel.open(prepared.path,
+				StandardOpenOption.READ);
+		try {
+			return this.writer.writeRaw(entry.name, ZipWriter.METHOD_STORED,
+					entry.crc, entry.size, entry.size, source, 0);
+		} finally {
+			source.close();
+		}
+	}
+
+	private static PreparedEntry await(Future<PreparedEntry> future)
+			throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Compression was interrupted!", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Can't compress file!", e.getCause());
+		}
+	}
+
+	private static byte[] deflate(InputStream in, int level)
+			throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		Deflater deflater = new Deflater(level, true);
+		try {
+			DeflaterOutputStream out = new DeflaterOutputStream(buffer,
+					deflater, 64 * 1024);
+			byte[] chunk = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(chunk)) != -1) {
+				out.write(chunk, 0, read);
+			}
+			out.finish();
+		} finally {
+			deflater.end();
+		}
+		return buffer.toByteArray();
+	}
+
+	private InputStream open(Path path, byte[] contents) throws IOException {
+		if (contents == null) {
+			return Files.newInputStream(path);
+		}
+		return new ByteArrayInputStream(contents);
+	}
+
+	private static boolean isSupported(int method) {
+		return method == ZipWriter.METHOD_DEFLATED
+				|| method == ZipWriter.METHOD_STORED;
+	}
+
+	private ZipWriter.Entry findReusable(IndexEntry entry) {
+		if (this.previous == null) {
+			return null;
+		}
+
+		IndexEntry old = this.previousByName.get(entry.name);
+		if (old == null || !old.sha1.equals(entry.sha1)) {
+			// File could have been moved.
+			old = this.previousByHash.get(entry.sha1);
+			if (old == null) {
+				return null;
+			}
+		}
+
+		// Data compressed other way must be compressed again.
+		if (!old.compression.equals(entry.compression)) {
+			return null;
+		}
+
+		ZipWriter.Entry data = this.previous.get(old.name);
+		if (data == null || !isSupported(data.method)
+				|| data.crc != entry.crc || data.size != entry.size) {
+			return null;
+		}
+		return data;
+	}
+
+	private void openPrevious() {
+		Path indexPath = Paths.get(this.out + INDEX_SUFFIX);
+		if (!Files.exists(this.out) || !Files.exists(indexPath)) {
+			return;
+		}
+
+		try {
+			this.previousByName = new HashMap<String, IndexEntry>();
+			this.previousByHash = new HashMap<String, IndexEntry>();
+			for (String line : Files.readAllLines(indexPath,
+					ZipWriter.NAME_CHARSET)) {
+				IndexEntry entry = IndexEntry.parse(line);
+				if (entry != null) {
+					this.previousByName.put(entry.name, entry);
+					this.previousByHash.put(entry.sha1, entry);
+				}
+			}
+			this.previous = ZipIndex.read(this.out);
+		} catch (IOException e) {
+			log.warn("Can't read previous archive {}, all files will be compressed.",
+					this.out, e);
+			this.previous = null;
+		}
+	}
+
+	/**
+	 * Finishes this zip archive and moves it to its place. Archive created
+	 * by previous build is replaced.
+	 * 
+	 * @throws IOException if an I/O error occurs.
+	 */
+	public void close() throws IOException {
+		try {
+			// Write entries that are still being compressed.
+			if (this.pending != null) {
+				while (!this.hashing.isEmpty() || !this.pending.isEmpty()) {
+					this.writeNext();
+				}
+			}
+			this.writer.finish(COMMENT);
+			this.sha1 = Hashes.sha1(this.channel);
+		} finally {
+			this.channel.close();
+			if (this.previous != null) {
+				this.previous.close();
+			}
+		}
+
+		// Write index of hashes of this archive.
+		Path indexPath = Paths.get(this.out + INDEX_SUFFIX);
+		Path indexTemp = Paths.get(indexPath + TEMP_SUFFIX);
+		BufferedWriter indexWriter = Files.newBufferedWriter(indexTemp,
+				ZipWriter.NAME_CHARSET);
+		try {
+			for (IndexEntry entry : this.index) {
+				indexWriter.write(entry.toString());
+				indexWriter.newLine();
+			}
+		} finally {
+			indexWriter.close();
+		}
+
+		// Write hash of this archive.
+		Path sha1Path = Paths.get(this.out + SHA1_SUFFIX);
+		Path sha1Temp = Paths.get(sha1Path + TEMP_SUFFIX);
+		Files.write(sha1Temp, (this.sha1 + "\n").getBytes(ZipWriter.NAME_CHARSET));
+		Files.setLastModifiedTime(sha1Temp, Files.getLastModifiedTime(this.temp));
+
+		move(indexTemp, indexPath);
+		move(sha1Temp, sha1Path);
+		move(this.temp, this.out);
+
+		if (this.previous != null) {
+			log.info("Reused {} compressed files ({} KB) from previous archive.",
+					this.reusedCount, this.reusedBytes / 1024);
+		}
+		if (this.storedCount > 0) {
+			log.info("Stored {} files ({} KB) without compression.",
+					this.storedCount, this.storedBytes / 1024);
+		}
+		if (this.written != null) {
+			log.info("Copied data of {} duplicate files ({} KB) without compressing them again.",
+					this.duplicateCount, this.duplicateBytes / 1024);
+		}
+	}
+
+	/**
+	 * Discards this archive without finishing it. Archive created by previous
+	 * build is kept. Does nothing when archive was already closed.
+	 */
+	public void abort() {
+		if (this.pending != null) {
+			for (Future<PreparedEntry> entry : this.hashing) {
+				entry.cancel(false);
+			}
+			for (Future<PreparedEntry> entry : this.pending) {
+				entry.cancel(false);
+			}
+			this.hashing.clear();
+			this.pending.clear();
+		}
+		try {
+			this.channel.close();
+			if (this.previous != null) {
+				this.previous.close();
+			}
+			Files.deleteIfExists(this.temp);
 		} catch (IOException e) {
-			e.printStackTrace();
+			log.warn("Can't delete unfinished archive {}!", this.temp, e);
+		}
+	}
+
+	/**
+	 * Returns SHA-1 hash of the archive. Available after the archive is
+	 * closed.
+	 * 
+	 * @return hash as hexadecimal string
+	 */
+	public String getSha1() {
+		return this.sha1;
+	}
+
+	private static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Represents entry that is hashed and possibly compressed, but not yet
+	 * written.
+	 */
+	private static class PreparedEntry {
+		private final Path path;
+		private final byte[] contents;
+		private final IndexEntry index;
+		private final CompressionRule rule;
+		// Entry of previous archive with same data.
+		private ZipWriter.Entry reused;
+		// Compressed data or null if they should be compressed by writer.
+		private byte[] compressed;
+		// Whether adaptive compression decided to store data.
+		private boolean stored;
+		// Whether file with same contents was added before this one.
+		private boolean duplicate;
+
+		PreparedEntry(Path path, byte[] contents, IndexEntry index,
+				CompressionRule rule) {
+			this.path = path;
+			this.contents = contents;
+			this.index = index;
+			this.rule = rule;
+		}
+	}
+
+	/**
+	 * Represents line of archive index.
+	 */
+	private static class IndexEntry {
+		private final String name;
+		// Key of compression rule used for entry.
+		private final String compression;
+		private String sha1;
+		private long crc;
+		private long size;
+
+		IndexEntry(String name, String compression) {
+			this.name = name;
+			this.compression = compression;
+		}
+
+		void hash(InputStream in) throws IOException {
+			MessageDigest digest = Hashes.sha1();
+			CRC32 crc32 = new CRC32();
+			byte[] buffer = new byte[64 * 1024];
+			long total = 0;
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+				crc32.update(buffer, 0, read);
+				total += read;
+			}
+			this.sha1 = Hashes.toHex(digest.digest());
+			this.crc = crc32.getValue();
+			this.size = total;
+		}
+
+		/**
+		 * Returns key of contents compressed by compression rule of entry.
+		 * Only files with same key can share compressed data, files with
+		 * same contents may be compressed differently by other rules.
+		 */
+		String getContentKey() {
+			return this.sha1 + " " + this.compression;
+		}
+
+		static IndexEntry parse(String line) {
+			String[] parts = line.split(" ", 3);
+			if (parts.length != 3) {
+				return null;
+			}
+			IndexEntry entry = new IndexEntry(parts[2], parts[1]);
+			entry.sha1 = parts[0];
+			return entry;
+		}
+
+		@Override
+		public String toString() {
+			return this.sha1 + " " + this.compression + " " + this.name;
 		}
 	}
 }
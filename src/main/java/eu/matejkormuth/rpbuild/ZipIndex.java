@@ -0,0 +1,218 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Central directory of existing ZIP file. Provides location of compressed data
+ * of each entry, so it can be copied to other archive without inflating it.
+ */
+class ZipIndex implements Closeable {
+	// End record (22 bytes) and maximal comment length.
+	private static final int MAX_END_SEARCH = 22 + 0xFFFF;
+	private static final long MAX_32 = 0xFFFFFFFFL;
+
+	private final FileChannel channel;
+	private final Map<String, ZipWriter.Entry> entries;
+
+	private ZipIndex(FileChannel channel) {
+		this.channel = channel;
+		this.entries = new LinkedHashMap<String, ZipWriter.Entry>();
+	}
+
+	/**
+	 * Reads central directory of specified ZIP file.
+	 * 
+	 * @param path
+	 *            path to ZIP file
+	 * @return index of ZIP file
+	 * @throws IOException
+	 *             if file can't be read or is not valid ZIP file
+	 */
+	static ZipIndex read(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		ZipIndex index = new ZipIndex(channel);
+		try {
+			index.readCentralDirectory();
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+		return index;
+	}
+
+	/**
+	 * Returns entry with specified name or null if there is no such entry.
+	 * 
+	 * @param name
+	 *            name of entry
+	 * @return entry or null
+	 */
+	ZipWriter.Entry get(String name) {
+		return this.entries.get(name);
+	}
+
+	/**
+	 * Returns position of compressed data of specified entry.
+	 * 
+	 * @param entry
+	 *            entry of this archive
+	 * @return position of entry data in this file
+	 * @throws IOException
+	 *             if local header of entry is not valid
+	 */
+	long getDataPosition(ZipWriter.Entry entry) throws IOException {
+		ByteBuffer header = this.read(entry.offset, ZipWriter.LOCAL_HEADER_SIZE);
+		if (header.getInt(0) != ZipWriter.LOCAL_HEADER_SIGNATURE) {
+			throw new IOException("Invalid local header of entry "
+					+ entry.name + "!");
+		}
+		int nameLength = header.getShort(26) & 0xFFFF;
+		int extraLength = header.getShort(28) & 0xFFFF;
+		return entry.offset + ZipWriter.LOCAL_HEADER_SIZE + nameLength
+				+ extraLength;
+	}
+
+	FileChannel getChannel() {
+		return channel;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+
+	private void readCentralDirectory() throws IOException {
+		long size = this.channel.size();
+		int searchLength = (int) Math.min(size, MAX_END_SEARCH);
+		ByteBuffer tail = this.read(size - searchLength, searchLength);
+
+		// Find end of central directory record from the end.
+		int end = -1;
+		for (int i = searchLength - 22; i >= 0; i--) {
+			if (tail.getInt(i) == ZipWriter.END_SIGNATURE) {
+				end = i;
+				break;
+			}
+		}
+		if (end < 0) {
+			throw new IOException("End of central directory not found!");
+		}
+
+		long count = tail.getShort(end + 10) & 0xFFFF;
+		long centralSize = tail.getInt(end + 12) & MAX_32;
+		long centralStart = tail.getInt(end + 16) & MAX_32;
+
+		// Look for zip64 end record locator right before end record.
+		long endPosition = size - searchLength + end;
+		if (endPosition >= 20) {
+			ByteBuffer locator = this.read(endPosition - 20, 20);
+			if (locator.getInt(0) == ZipWriter.ZIP64_LOCATOR_SIGNATURE) {
+				ByteBuffer end64 = this.read(locator.getLong(8), 56);
+				if (end64.getInt(0) != ZipWriter.ZIP64_END_SIGNATURE) {
+					throw new IOException("Invalid zip64 end record!");
+				}
+				count = end64.getLong(32);
+				centralSize = end64.getLong(40);
+				centralStart = end64.getLong(48);
+			}
+		}
+
+		ByteBuffer central = this.read(centralStart, (int) centralSize);
+		for (long i = 0; i < count; i++) {
+			if (central.getInt() != ZipWriter.CENTRAL_HEADER_SIGNATURE) {
+				throw new IOException("Invalid central directory header!");
+			}
+			int start = central.position() - 4;
+			int method = central.getShort(start + 10) & 0xFFFF;
+			long crc = central.getInt(start + 16) & MAX_32;
+			long compressedSize = central.getInt(start + 20) & MAX_32;
+			long uncompressedSize = central.getInt(start + 24) & MAX_32;
+			int nameLength = central.getShort(start + 28) & 0xFFFF;
+			int extraLength = central.getShort(start + 30) & 0xFFFF;
+			int commentLength = central.getShort(start + 32) & 0xFFFF;
+			long offset = central.getInt(start + 42) & MAX_32;
+
+			byte[] name = new byte[nameLength];
+			central.position(start + 46);
+			central.get(name);
+
+			// Values that do not fit to 32 bits are stored in zip64 extra.
+			int extra = start + 46 + nameLength;
+			int extraEnd = extra + extraLength;
+			while (extra + 4 <= extraEnd) {
+				int id = central.getShort(extra) & 0xFFFF;
+				int length = central.getShort(extra + 2) & 0xFFFF;
+				if (id == 0x0001) {
+					int field = extra + 4;
+					if (uncompressedSize == MAX_32) {
+						uncompressedSize = central.getLong(field);
+						field += 8;
+					}
+					if (compressedSize == MAX_32) {
+						compressedSize = central.getLong(field);
+						field += 8;
+					}
+					if (offset == MAX_32) {
+						offset = central.getLong(field);
+					}
+				}
+				extra += 4 + length;
+			}
+			central.position(extraEnd + commentLength);
+
+			ZipWriter.Entry entry = new ZipWriter.Entry(new String(name,
+					ZipWriter.NAME_CHARSET), method, crc, compressedSize,
+					uncompressedSize, offset);
+			this.entries.put(entry.name, entry);
+		}
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(
+				ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (this.channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Unexpected end of ZIP file!");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
@@ -0,0 +1,425 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Low level writer of ZIP file format. Unlike ZipOutputStream, this writer
+ * can copy already compressed entry data without inflating and deflating it.
+ */
+class ZipWriter {
+	static final int METHOD_STORED = 0;
+	static final int METHOD_DEFLATED = 8;
+
+	static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	static final int END_SIGNATURE = 0x06054b50;
+	static final int ZIP64_END_SIGNATURE = 0x06064b50;
+	static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+	static final int LOCAL_HEADER_SIZE = 30;
+
+	static final Charset NAME_CHARSET = Charset.forName("UTF-8");
+	// Names are encoded in UTF-8.
+	private static final int FLAG_UTF8 = 0x800;
+	private static final int VERSION = 20;
+	private static final int VERSION_ZIP64 = 45;
+	private static final long MAX_32 = 0xFFFFFFFFL;
+	private static final int MAX_16 = 0xFFFF;
+	// All entries are dated 1980-01-01 00:00, the earliest DOS date, so same
+	// files always produce same archive with same hash.
+	private static final int DOS_TIME = 0;
+	private static final int DOS_DATE = (1 << 5) | 1;
+
+	private final FileChannel channel;
+	private final List<Entry> entries;
+
+	/**
+	 * Creates writer that writes to specified channel from its current
+	 * position.
+	 * 
+	 * @param channel
+	 *            channel to write to
+	 */
+	ZipWriter(FileChannel channel) {
+		this.channel = channel;
+		this.entries = new ArrayList<Entry>();
+	}
+
+	/**
+	 * Writes entry by compressing data read from specified stream. CRC and
+	 * size of data must be known in advance.
+	 * 
+	 * @param name
+	 *            name of entry
+	 * @param crc
+	 *            CRC-32 of uncompressed data
+	 * @param size
+	 *            size of uncompressed data
+	 * @param level
+	 *            deflate compression level
+	 * @param in
+	 *            uncompressed data
+	 * @return written entry
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	Entry writeDeflated(String name, long crc, long size, int level,
+			InputStream in) throws IOException {
+		checkSize(name, size);
+		Entry entry = new Entry(name, METHOD_DEFLATED, crc, 0, size,
+				this.channel.position());
+		this.writeLocalHeader(entry);
+
+		long dataStart = this.channel.position();
+		Deflater deflater = new Deflater(level, true);
+		try {
+			DeflaterOutputStream out = new DeflaterOutputStream(
+					this.newUnclosableStream(), deflater, 64 * 1024);
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			out.finish();
+		} finally {
+			deflater.end();
+		}
+
+		// Compressed size is known only now, so patch it into the header.
+		entry.compressedSize = this.channel.position() - dataStart;
+		checkSize(name, entry.compressedSize);
+		ByteBuffer patch = buffer(4);
+		patch.putInt((int) entry.compressedSize).flip();
+		this.writeFully(patch, entry.offset + 18);
+
+		this.entries.add(entry);
+		return entry;
+	}
+
+	/**
+	 * Writes entry with data that is already compressed.
+	 * 
+	 * @param name
+	 *            name of entry
+	 * @param method
+	 *            compression method of data
+	 * @param crc
+	 *            CRC-32 of uncompressed data
+	 * @param size
+	 *            size of uncompressed data
+	 * @param data
+	 *            compressed data
+	 * @return written entry
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	Entry writeCompressed(String name, int method, long crc, long size,
+			byte[] data) throws IOException {
+		checkSize(name, size);
+		Entry entry = new Entry(name, method, crc, data.length, size,
+				this.channel.position());
+		this.writeLocalHeader(entry);
+		this.writeFully(ByteBuffer.wrap(data));
+
+		this.entries.add(entry);
+		return entry;
+	}
+
+	/**
+	 * Writes entry with data that is already compressed by copying it from
+	 * specified channel.
+	 * 
+	 * @param name
+	 *            name of entry
+	 * @param method
+	 *            compression method of data
+	 * @param crc
+	 *            CRC-32 of uncompressed data
+	 * @param compressedSize
+	 *            size of compressed data
+	 * @param size
+	 *            size of uncompressed data
+	 * @param source
+	 *            channel containing compressed data
+	 * @param position
+	 *            position of compressed data in source channel
+	 * @return written entry
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	Entry writeRaw(String name, int method, long crc, long compressedSize,
+			long size, FileChannel source, long position) throws IOException {
+		checkSize(name, size);
+		checkSize(name, compressedSize);
+		Entry entry = new Entry(name, method, crc, compressedSize, size,
+				this.channel.position());
+		this.writeLocalHeader(entry);
+
+		// FileChannel.transferTo advances position of target channel, only
+		// position of source is not changed.
+		long transferred = 0;
+		while (transferred < compressedSize) {
+			long count = source.transferTo(position + transferred,
+					compressedSize - transferred, this.channel);
+			if (count <= 0) {
+				throw new IOException("Unexpected end of data of entry "
+						+ name + "!");
+			}
+			transferred += count;
+		}
+
+		this.entries.add(entry);
+		return entry;
+	}
+
+	/**
+	 * Writes entry with data copied from entry which was already written to
+	 * this archive, so the data does not have to be compressed again. Entry
+	 * has its own local header, so it is valid for all readers.
+	 * 
+	 * @param name
+	 *            name of entry
+	 * @param target
+	 *            entry whose data should be copied
+	 * @return written entry
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	Entry writeCopy(String name, Entry target) throws IOException {
+		Entry entry = new Entry(name, target.method, target.crc,
+				target.compressedSize, target.size, this.channel.position());
+		this.writeLocalHeader(entry);
+
+		long source = target.offset + LOCAL_HEADER_SIZE
+				+ target.nameBytes.length;
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(
+				target.compressedSize, 64 * 1024));
+		long copied = 0;
+		while (copied < target.compressedSize) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(),
+					target.compressedSize - copied));
+			int read = this.channel.read(buffer, source + copied);
+			if (read <= 0) {
+				throw new IOException("Unexpected end of data of entry "
+						+ target.name + "!");
+			}
+			buffer.flip();
+			this.writeFully(buffer);
+			copied += read;
+		}
+
+		this.entries.add(entry);
+		return entry;
+	}
+
+	/**
+	 * Writes central directory and end of central directory record.
+	 * 
+	 * @param comment
+	 *            archive comment
+	 * @throws IOException
+	 *             if an I/O error occurs
+	 */
+	void finish(String comment) throws IOException {
+		long centralStart = this.channel.position();
+		for (Entry entry : this.entries) {
+			this.writeCentralHeader(entry);
+		}
+		long centralEnd = this.channel.position();
+		long centralSize = centralEnd - centralStart;
+
+		boolean zip64 = this.entries.size() > MAX_16 - 1
+				|| centralStart > MAX_32 || centralSize > MAX_32;
+		if (zip64) {
+			ByteBuffer end64 = buffer(56 + 20);
+			end64.putInt(ZIP64_END_SIGNATURE);
+			end64.putLong(44);
+			end64.putShort((short) VERSION_ZIP64);
+			end64.putShort((short) VERSION_ZIP64);
+			end64.putInt(0);
+			end64.putInt(0);
+			end64.putLong(this.entries.size());
+			end64.putLong(this.entries.size());
+			end64.putLong(centralSize);
+			end64.putLong(centralStart);
+			// Locator of zip64 end record.
+			end64.putInt(ZIP64_LOCATOR_SIGNATURE);
+			end64.putInt(0);
+			end64.putLong(centralEnd);
+			end64.putInt(1);
+			end64.flip();
+			this.writeFully(end64);
+		}
+
+		byte[] commentBytes = comment.getBytes(NAME_CHARSET);
+		ByteBuffer end = buffer(22 + commentBytes.length);
+		end.putInt(END_SIGNATURE);
+		end.putShort((short) 0);
+		end.putShort((short) 0);
+		end.putShort((short) Math.min(this.entries.size(), MAX_16));
+		end.putShort((short) Math.min(this.entries.size(), MAX_16));
+		end.putInt((int) Math.min(centralSize, MAX_32));
+		end.putInt((int) Math.min(centralStart, MAX_32));
+		end.putShort((short) commentBytes.length);
+		end.put(commentBytes);
+		end.flip();
+		this.writeFully(end);
+	}
+
+	List<Entry> getEntries() {
+		return entries;
+	}
+
+	private void writeLocalHeader(Entry entry) throws IOException {
+		ByteBuffer header = buffer(LOCAL_HEADER_SIZE + entry.nameBytes.length);
+		header.putInt(LOCAL_HEADER_SIGNATURE);
+		header.putShort((short) VERSION);
+		header.putShort((short) FLAG_UTF8);
+		header.putShort((short) entry.method);
+		header.putShort((short) DOS_TIME);
+		header.putShort((short) DOS_DATE);
+		header.putInt((int) entry.crc);
+		header.putInt((int) entry.compressedSize);
+		header.putInt((int) entry.size);
+		header.putShort((short) entry.nameBytes.length);
+		header.putShort((short) 0);
+		header.put(entry.nameBytes);
+		header.flip();
+		this.writeFully(header);
+	}
+
+	private void writeCentralHeader(Entry entry) throws IOException {
+		// Offsets over 4 GB are stored in zip64 extra field.
+		boolean zip64 = entry.offset > MAX_32;
+		int extraLength = zip64 ? 12 : 0;
+
+		ByteBuffer header = buffer(46 + entry.nameBytes.length + extraLength);
+		header.putInt(CENTRAL_HEADER_SIGNATURE);
+		header.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+		header.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+		header.putShort((short) FLAG_UTF8);
+		header.putShort((short) entry.method);
+		header.putShort((short) DOS_TIME);
+		header.putShort((short) DOS_DATE);
+		header.putInt((int) entry.crc);
+		header.putInt((int) entry.compressedSize);
+		header.putInt((int) entry.size);
+		header.putShort((short) entry.nameBytes.length);
+		header.putShort((short) extraLength);
+		header.putShort((short) 0);
+		header.putShort((short) 0);
+		header.putShort((short) 0);
+		header.putInt(0);
+		header.putInt((int) (zip64 ? MAX_32 : entry.offset));
+		header.put(entry.nameBytes);
+		if (zip64) {
+			header.putShort((short) 0x0001);
+			header.putShort((short) 8);
+			header.putLong(entry.offset);
+		}
+		header.flip();
+		this.writeFully(header);
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			this.channel.write(buffer);
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer, long position)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			position += this.channel.write(buffer, position);
+		}
+	}
+
+	private OutputStream newUnclosableStream() {
+		final OutputStream out = Channels.newOutputStream(this.channel);
+		return new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+			}
+		};
+	}
+
+	private static ByteBuffer buffer(int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static void checkSize(String name, long size) throws IOException {
+		if (size > MAX_32) {
+			throw new IOException("Entry " + name
+					+ " is too big! Entries bigger than 4 GB are not supported.");
+		}
+	}
+
+	/**
+	 * Represents entry of ZIP file.
+	 */
+	static class Entry {
+		final String name;
+		final byte[] nameBytes;
+		final int method;
+		final long crc;
+		long compressedSize;
+		final long size;
+		final long offset;
+
+		Entry(String name, int method, long crc, long compressedSize,
+				long size, long offset) {
+			this.name = name;
+			this.nameBytes = name.getBytes(NAME_CHARSET);
+			this.method = method;
+			this.crc = crc;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.offset = offset;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild.api;
+
+import eu.matejkormuth.rpbuild.configuration.xml.XmlCompressionPolicy;
+
+/**
+ * Represents rule that specifies how matching files are stored in zip
+ * archive.
+ * 
+ * @see XmlCompressionPolicy
+ */
+public interface CompressionPolicy {
+	/**
+	 * Files are compressed using deflate.
+	 */
+	public static final String METHOD_DEFLATE = "deflate";
+	/**
+	 * Files are stored without compression.
+	 */
+	public static final String METHOD_STORED = "stored";
+	/**
+	 * Files are compressed using deflate only when compression saves enough
+	 * space, otherwise they are stored.
+	 */
+	public static final String METHOD_ADAPTIVE = "adaptive";
+
+	/**
+	 * Returns files this policy applies to. Either file extension (for example
+	 * <code>.ogg</code>) or glob pattern matched against path relative to
+	 * resource pack root (for example <code>**&#47;textures/**.png</code>).
+	 * 
+	 * @return file extension or glob pattern
+	 */
+	public abstract String getFiles();
+
+	/**
+	 * Returns compression method of matching files.
+	 * 
+	 * @return one of <code>METHOD_</code> constants
+	 */
+	public abstract String getMethod();
+
+	/**
+	 * Returns deflate compression level or -1 to use compression level of
+	 * project.
+	 * 
+	 * @return compression level
+	 */
+	public abstract int getLevel();
+
+	/**
+	 * Returns minimal percentage of saved space for which adaptive method
+	 * compresses file.
+	 * 
+	 * @return percentage of size saved by compression
+	 */
+	public abstract int getMinGain();
+}
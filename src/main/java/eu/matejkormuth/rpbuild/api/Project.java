@@ -62,4 +62,34 @@ public interface Project {
 
 	public abstract int getCompressionLevel();
 
+	public abstract int getThreads();
+
+	public abstract boolean isPipeline();
+
+	public abstract String getStaging();
+
+	public abstract int getMemoryFileLimit();
+
+	public abstract int getMemoryBudget();
+
+	public abstract Path getCache();
+
+	public abstract int getArchiveWindow();
+
+	public abstract boolean isDeduplicate();
+
+	public abstract boolean isMetrics();
+
+	public abstract int getMetricsThreshold();
+
+	public abstract CompressionPolicy[] getCompression();
+
+	public abstract Variant[] getVariants();
+
+	public abstract String getServerAddress();
+
+	public abstract int getServerPort();
+
+	public abstract int getServerThreads();
+
 }
\ No newline at end of file
@@ -28,24 +28,27 @@
  */
 package eu.matejkormuth.rpbuild.compilers;
 
+import java.awt.Dimension;
 import java.awt.geom.AffineTransform;
 import java.awt.image.AffineTransformOp;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-
-import javax.imageio.ImageIO;
+import java.io.InputStream;
 
 import eu.matejkormuth.rpbuild.Compiler;
+import eu.matejkormuth.rpbuild.ImageCodecs;
 import eu.matejkormuth.rpbuild.OpenedFile;
+import eu.matejkormuth.rpbuild.ThreadSafe;
 import eu.matejkormuth.rpbuild.exceptions.BuildError;
 import eu.matejkormuth.rpbuild.exceptions.InvalidSettingsError;
 
+@ThreadSafe
 public class ImageResizer extends Compiler {
 
 	private int maxResolution;
 	private int interpolationType; // AffineTransformOp
+	// Resampler used instead of AffineTransformOp or null.
+	private Resampler resampler;
 
 	@Override
 	public void onInit() throws InvalidSettingsError {
@@ -74,9 +77,15 @@ public class ImageResizer extends Compiler {
 			interpolationType = AffineTransformOp.TYPE_BILINEAR;
 		} else if (interpolation.equalsIgnoreCase("bicubic")) {
 			interpolationType = AffineTransformOp.TYPE_BICUBIC;
+		} else if (interpolation.equalsIgnoreCase("box")) {
+			resampler = new Resampler(Resampler.Filter.BOX);
+		} else if (interpolation.equalsIgnoreCase("mitchell")) {
+			resampler = new Resampler(Resampler.Filter.MITCHELL);
+		} else if (interpolation.equalsIgnoreCase("lanczos")) {
+			resampler = new Resampler(Resampler.Filter.LANCZOS);
 		} else {
 			throw new InvalidSettingsError(
-					"Please set interpolationType to 'nearest', 'bilinear' or 'bicubic'!");
+					"Please set interpolationType to 'nearest', 'bilinear', 'bicubic', 'box', 'mitchell' or 'lanczos'!");
 		}
 	}
 
@@ -84,33 +93,46 @@ public class ImageResizer extends Compiler {
 	public void compile(OpenedFile file) throws BuildError {
 		// Resize only block textures and items. Resizing other files may crash
 		// the game.
-		if (!file.getPath().toString().contains("assets/minecraft/textures/blocks") && 
-				!file.getPath().toString().contains("assets/minecraft/textures/items")) {
+		if (!isResizable(file)) {
 			return;
 		}
 
 		try {
-			BufferedImage srcImg = ImageIO.read(new ByteArrayInputStream(file
-					.getContents()));
+			// Read size from header, so small images are not decoded.
+			BufferedImage srcImg = file.getDecodedImage();
+			Dimension size;
+			if (srcImg != null) {
+				size = new Dimension(srcImg.getWidth(), srcImg.getHeight());
+			} else {
+				try (InputStream in = file.openStream()) {
+					size = ImageCodecs.readPngSize(in);
+				}
+				if (size == null) {
+					// Not a PNG image.
+					srcImg = file.getImage();
+					size = new Dimension(srcImg.getWidth(), srcImg.getHeight());
+				}
+			}
 
 			// Resize only files bigger than max. resolution.
-			if (srcImg.getWidth() > maxResolution) {
+			if (size.width > maxResolution) {
 				log.info("Resizing file: " + file.getPath().toString());
 
-				float aspectRatio = (float) srcImg.getHeight()
-						/ (float) srcImg.getWidth();
+				float aspectRatio = (float) size.height / (float) size.width;
 				int newHeight = (int) (aspectRatio * maxResolution);
 
-				BufferedImage scaledImg = getScaledImage(srcImg, maxResolution,
-						newHeight);
+				if (srcImg == null) {
+					srcImg = this.decode(file, size);
+				}
 
-				// Save new image to file.
-				ByteArrayOutputStream baos = new ByteArrayOutputStream();
-				ImageIO.write(scaledImg, "png", baos);
-				baos.flush();
-				file.setContents(baos.toByteArray());
-				baos.close();
+				BufferedImage scaledImg = srcImg;
+				if (srcImg.getWidth() != maxResolution
+						|| srcImg.getHeight() != newHeight) {
+					scaledImg = getScaledImage(srcImg, maxResolution, newHeight);
+				}
 
+				// Image is encoded after all compilers have run.
+				file.setImage(scaledImg, "png");
 			}
 		} catch (IOException e) {
 			throw new BuildError(e);
@@ -118,8 +140,76 @@ public class ImageResizer extends Compiler {
 
 	}
 
+	@Override
+	public int getImageSubsampling(OpenedFile file, Dimension size) {
+		if (!isResizable(file) || size.width <= maxResolution) {
+			return 0;
+		}
+		return Math.max(1, this.getSubsampling(size.width));
+	}
+
+	private static boolean isResizable(OpenedFile file) {
+		String path = file.getPath().toString();
+		return path.contains("assets/minecraft/textures/blocks")
+				|| path.contains("assets/minecraft/textures/items");
+	}
+
+	/**
+	 * Returns how many times big PNG image can be subsampled. With nearest
+	 * neighbor interpolation only pixels which end up in resized image are
+	 * decoded, when width is multiple of max. resolution. Bilinear and bicubic
+	 * interpolations get twice as many pixels as they need, filters of
+	 * resampler which average more pixels get four times as many.
+	 */
+	private int getSubsampling(int width) {
+		if (this.resampler != null) {
+			return width / maxResolution / 4;
+		} else if (this.interpolationType == AffineTransformOp.TYPE_NEAREST_NEIGHBOR) {
+			// Same pixels as scaling would pick.
+			return width % maxResolution == 0 ? width / maxResolution : 1;
+		} else {
+			return width / maxResolution / 2;
+		}
+	}
+
+	/**
+	 * Decodes big PNG image only partially. Image already decoded for other
+	 * variant is used when it has enough pixels.
+	 */
+	private BufferedImage decode(OpenedFile file, Dimension size)
+			throws IOException, BuildError {
+		int subsampling = Math.max(1, this.getSubsampling(size.width));
+		BufferedImage shared = file.getSubsampledImage(subsampling);
+		if (shared != null) {
+			int width = (size.width + subsampling / 2) / subsampling;
+			if (shared.getWidth() > width && this.resampler == null
+					&& this.interpolationType != AffineTransformOp.TYPE_NEAREST_NEIGHBOR) {
+				// Bilinear and bicubic interpolations would skip pixels of
+				// much bigger image, pick same pixels as decoding would.
+				int height = (size.height + subsampling / 2) / subsampling;
+				return scale(shared, width, height,
+						AffineTransformOp.TYPE_NEAREST_NEIGHBOR);
+			}
+			return shared;
+		}
+		if (subsampling < 2) {
+			return file.getImage();
+		}
+		try (InputStream in = file.openStream()) {
+			return ImageCodecs.read(in, "png", subsampling);
+		}
+	}
+
 	private BufferedImage getScaledImage(BufferedImage image, int width,
 			int height) throws IOException {
+		if (this.resampler != null) {
+			return this.resampler.resize(image, width, height);
+		}
+		return scale(image, width, height, this.interpolationType);
+	}
+
+	private static BufferedImage scale(BufferedImage image, int width,
+			int height, int interpolationType) {
 		int imageWidth = image.getWidth();
 		int imageHeight = image.getHeight();
 
@@ -128,10 +218,13 @@ public class ImageResizer extends Compiler {
 		AffineTransform scaleTransform = AffineTransform.getScaleInstance(
 				scaleX, scaleY);
 		AffineTransformOp scaleOp = new AffineTransformOp(scaleTransform,
-				this.interpolationType);
+				interpolationType);
 
-		return scaleOp.filter(image,
-				new BufferedImage(width, height, image.getType()));
+		// Images with custom type (e.g. grayscale with alpha) can't be
+		// created by type.
+		int type = image.getType() == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_ARGB
+				: image.getType();
+		return scaleOp.filter(image, new BufferedImage(width, height, type));
 	}
 
 }
@@ -28,10 +28,14 @@
  */
 package eu.matejkormuth.rpbuild.compilers;
 
+import org.json.JSONObject;
+
 import eu.matejkormuth.rpbuild.Compiler;
 import eu.matejkormuth.rpbuild.OpenedFile;
+import eu.matejkormuth.rpbuild.ThreadSafe;
 import eu.matejkormuth.rpbuild.exceptions.BuildError;
 
+@ThreadSafe
 public class JsonCommenter extends Compiler {
 
 	private String comment;
@@ -53,15 +57,33 @@ public class JsonCommenter extends Compiler {
 		}
 	}
 
-	private void commentUnformatted(OpenedFile file) {
+	private void commentUnformatted(OpenedFile file) throws BuildError {
 		String contents = new String(file.getContents(), this.getCharset());
+		// Rest of file is kept as it is, only objects can be commented.
+		int brace = firstNonWhitespace(contents, 0);
+		if (brace < 0 || contents.charAt(brace) != '{') {
+			return;
+		}
 		// { "__comment" : "comment value",
-		contents = contents.replaceFirst("\\{", "{\"__comment\":\""
-				+ this.comment + "\",");
+		int next = firstNonWhitespace(contents, brace + 1);
+		boolean empty = next >= 0 && contents.charAt(next) == '}';
+		contents = contents.substring(0, brace + 1) + "\"__comment\":"
+				+ JSONObject.quote(this.comment) + (empty ? "" : ",")
+				+ contents.substring(brace + 1);
 		file.setContents(contents.getBytes(this.getCharset()));
 	}
 
-	private void commentFormatted(OpenedFile file) {
+	private static int firstNonWhitespace(String text, int from) {
+		for (int i = from; i < text.length(); i++) {
+			if (!Character.isWhitespace(text.charAt(i))
+					&& text.charAt(i) != '\uFEFF') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void commentFormatted(OpenedFile file) throws BuildError {
 		// Until someone starts complaining.
 		this.commentUnformatted(file);
 	}
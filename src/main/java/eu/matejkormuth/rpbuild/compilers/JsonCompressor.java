@@ -28,18 +28,116 @@
  */
 package eu.matejkormuth.rpbuild.compilers;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 import eu.matejkormuth.rpbuild.Compiler;
 import eu.matejkormuth.rpbuild.OpenedFile;
+import eu.matejkormuth.rpbuild.ThreadSafe;
+import eu.matejkormuth.rpbuild.exceptions.BuildError;
 
 /**
  * Represents compiler that compresses JSON files by removing all whitespace
- * from them.
+ * outside of strings from them.
+ * <p>
+ * Files are minified byte by byte without decoding them, so encoding of
+ * files must be ASCII compatible (for example UTF-8). Comments are kept
+ * unless stripComments setting is true.
  */
+@ThreadSafe
 public class JsonCompressor extends Compiler {
+
+	private boolean stripComments;
+
+	@Override
+	public void onInit() {
+		this.stripComments = Boolean.parseBoolean(this.getSetting(
+				"stripComments", "false").getValue());
+	}
+
 	@Override
-	public void compile(OpenedFile file) {
-		// Remove all whitespace.
-		file.setContents(new String(file.getContents(), this.getCharset())
-				.replaceAll("\\s+", "").getBytes(this.getCharset()));
+	public void compile(OpenedFile file) throws BuildError {
+		ByteBuffer in = file.getBuffer();
+		byte[] out = new byte[in.remaining()];
+		int length = minify(in, out, this.stripComments);
+		if (length < out.length) {
+			file.setContents(Arrays.copyOf(out, length));
+		}
+	}
+
+	/**
+	 * Copies JSON from buffer to array without insignificant whitespace.
+	 * 
+	 * @param in
+	 *            JSON to minify
+	 * @param out
+	 *            array at least as big as remaining bytes in buffer
+	 * @param stripComments
+	 *            whether to remove // and /* comments
+	 * @return number of bytes written to array
+	 */
+	static int minify(ByteBuffer in, byte[] out, boolean stripComments) {
+		int i = in.position();
+		int end = in.limit();
+		int length = 0;
+		while (i < end) {
+			byte b = in.get(i++);
+			switch (b) {
+			case ' ':
+			case '\t':
+			case '\n':
+			case '\r':
+			case '\f':
+			case 0x0B:
+				break;
+			case '"':
+				// Copy string literal including escaped quotes.
+				out[length++] = b;
+				while (i < end) {
+					b = in.get(i++);
+					out[length++] = b;
+					if (b == '\\') {
+						if (i < end) {
+							out[length++] = in.get(i++);
+						}
+					} else if (b == '"') {
+						break;
+					}
+				}
+				break;
+			case '/':
+				int start = i - 1;
+				if (i < end && in.get(i) == '/') {
+					// Line comment, keep the line break when comment is kept.
+					while (i < end && in.get(i) != '\n') {
+						i++;
+					}
+					if (i < end) {
+						i++;
+					}
+				} else if (i < end && in.get(i) == '*') {
+					i++;
+					while (i < end
+							&& !(in.get(i - 1) == '*' && in.get(i) == '/' && i - 1 > start + 1)) {
+						i++;
+					}
+					if (i < end) {
+						i++;
+					}
+				} else {
+					out[length++] = b;
+					break;
+				}
+				if (!stripComments) {
+					for (int j = start; j < i; j++) {
+						out[length++] = in.get(j);
+					}
+				}
+				break;
+			default:
+				out[length++] = b;
+			}
+		}
+		return length;
 	}
 }
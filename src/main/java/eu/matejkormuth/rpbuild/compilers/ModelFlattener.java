@@ -0,0 +1,380 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild.compilers;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONObject;
+
+import eu.matejkormuth.rpbuild.Compiler;
+import eu.matejkormuth.rpbuild.OpenedFile;
+import eu.matejkormuth.rpbuild.ThreadSafe;
+import eu.matejkormuth.rpbuild.exceptions.BuildError;
+
+/**
+ * Represents compiler that resolves parent chains of models and optionally
+ * replaces models with flattened ones, which have textures, elements and
+ * display settings of all their parents inlined.
+ * <p>
+ * Models are read once when compilation starts, in parallel when compilation
+ * starts in fork/join pool. Each parent is resolved only once, even when
+ * models are compiled by more threads. Parents which are not in resource pack
+ * (for example vanilla models) and builtin parents are kept as parent of
+ * flattened model. Models with cyclic parents are not changed.
+ * <p>
+ * Parents of compiled models are remembered between builds, so when model
+ * changes in watch mode, flattened models which inherit from it are compiled
+ * again.
+ */
+@ThreadSafe
+public class ModelFlattener extends Compiler {
+	// Resolved parent of model which is part of cycle.
+	private static final Resolved CYCLE = new Resolved(new JSONObject(), null, 0);
+	// Resolved parent of model without parent.
+	private static final Resolved NONE = new Resolved(new JSONObject(), null, 0);
+	// Number of models parsed by one task.
+	private static final int PARSE_THRESHOLD = 64;
+
+	private boolean flatten;
+
+	// Models in resource pack by relative path.
+	private volatile Map<String, JSONObject> models = new HashMap<String, JSONObject>();
+	// Already resolved models by relative path.
+	private final ConcurrentMap<String, Resolved> resolved = new ConcurrentHashMap<String, Resolved>();
+	// Parent in resource pack of each compiled model, kept between builds.
+	private final ConcurrentMap<String, String> parents = new ConcurrentHashMap<String, String>();
+
+	private final AtomicInteger resolvedModels = new AtomicInteger();
+	private final AtomicInteger longestChain = new AtomicInteger();
+	private final ProblemList missingParents = new ProblemList();
+	private final ProblemList cycles = new ProblemList();
+
+	@Override
+	public void onInit() {
+		this.flatten = Boolean.parseBoolean(this.getSetting("flatten",
+				"false").getValue());
+	}
+
+	@Override
+	public void onCompileStart() throws BuildError {
+		List<String> names = new ArrayList<String>();
+		for (String name : this.getFileNames("assets")) {
+			if (name.contains("/models/") && name.endsWith(".json")) {
+				names.add(name);
+			}
+		}
+		JSONObject[] parsed = new JSONObject[names.size()];
+		Parse parse = new Parse(names, parsed, 0, names.size());
+		if (ForkJoinTask.inForkJoinPool()) {
+			parse.invoke();
+		} else {
+			parse.parse(0, names.size());
+		}
+		if (parse.error != null) {
+			throw parse.error;
+		}
+		Map<String, JSONObject> models = new HashMap<String, JSONObject>();
+		for (int i = 0; i < parsed.length; i++) {
+			models.put(names.get(i), parsed[i]);
+		}
+		this.models = models;
+		this.resolved.clear();
+		this.resolvedModels.set(0);
+		this.longestChain.set(0);
+		this.missingParents.clear();
+		this.cycles.clear();
+	}
+
+	@Override
+	public void compile(OpenedFile file) throws BuildError {
+		String name = this.relativize(file.getPath()).toString()
+				.replace('\\', '/');
+		if (!name.contains("/models/")) {
+			return;
+		}
+		// Model read when compilation started has same contents, unless it
+		// was changed by previous compilers.
+		JSONObject model = file.isModified() ? null : this.models.get(name);
+		if (model == null) {
+			model = file.getJson(this.getCharset());
+		}
+		this.rememberParent(name, model);
+
+		Set<String> resolving = new HashSet<String>();
+		resolving.add(name);
+		Resolved parent = this.resolveParent(name, model, resolving);
+		if (parent == CYCLE) {
+			this.cycles.add(name);
+			return;
+		}
+		this.resolvedModels.incrementAndGet();
+		int chain = parent.depth + 1;
+		int longest;
+		while ((longest = this.longestChain.get()) < chain
+				&& !this.longestChain.compareAndSet(longest, chain)) {
+		}
+
+		if (this.flatten && parent.depth > 0) {
+			JSONObject flattened = merge(parent.model, model);
+			if (parent.root != null) {
+				flattened.put("parent", parent.root);
+			}
+			file.setJson(flattened, this.getCharset());
+		}
+	}
+
+	@Override
+	public void onCompileEnd() {
+		log.info("Resolved {} models, longest parent chain has {} models.",
+				this.resolvedModels.get(), this.longestChain.get());
+		this.missingParents.report(log,
+				"Models have parents which are not in resource pack", false);
+		this.cycles.report(log, "Models have cyclic parents", true);
+		// Parsed models are not needed until next build.
+		this.models = new HashMap<String, JSONObject>();
+		this.resolved.clear();
+	}
+
+	@Override
+	public boolean isCacheable() {
+		// Output depends on parent models.
+		return false;
+	}
+
+	@Override
+	public Set<Path> getDependants(Collection<Path> changed) {
+		Set<Path> dependants = new LinkedHashSet<Path>();
+		if (!this.flatten) {
+			// Models which are not flattened do not include their parents.
+			return dependants;
+		}
+		Set<String> found = new HashSet<String>();
+		for (Path path : changed) {
+			found.add(path.toString().replace('\\', '/'));
+		}
+		// Find children of changed models until no more are found.
+		boolean added = true;
+		while (added) {
+			added = false;
+			for (Map.Entry<String, String> entry : this.parents.entrySet()) {
+				if (found.contains(entry.getValue())
+						&& found.add(entry.getKey())) {
+					dependants.add(Paths.get(entry.getKey()));
+					added = true;
+				}
+			}
+		}
+		return dependants;
+	}
+
+	private void rememberParent(String name, JSONObject model) {
+		String parent = model.optString("parent", "");
+		String path = parent.isEmpty() ? null : modelPath(parent);
+		if (path == null) {
+			this.parents.remove(name);
+		} else {
+			this.parents.put(name, path);
+		}
+	}
+
+	private Resolved resolve(String name, Set<String> resolving) {
+		Resolved resolved = this.resolved.get(name);
+		if (resolved != null) {
+			return resolved;
+		}
+		if (!resolving.add(name)) {
+			return CYCLE;
+		}
+		JSONObject model = this.models.get(name);
+		Resolved parent = this.resolveParent(name, model, resolving);
+		resolving.remove(name);
+		if (parent == CYCLE) {
+			resolved = CYCLE;
+		} else {
+			resolved = new Resolved(merge(parent.model, model), parent.root,
+					parent.depth + 1);
+		}
+		Resolved previous = this.resolved.putIfAbsent(name, resolved);
+		return previous == null ? resolved : previous;
+	}
+
+	private Resolved resolveParent(String name, JSONObject model,
+			Set<String> resolving) {
+		String parent = model.optString("parent", "");
+		if (parent.isEmpty()) {
+			return NONE;
+		}
+		String path = modelPath(parent);
+		if (path == null) {
+			// Builtin models can't be flattened.
+			return new Resolved(new JSONObject(), parent, 0);
+		}
+		if (!this.models.containsKey(path)) {
+			// Probably vanilla model.
+			this.missingParents.add(name + " (parent: " + parent + ")");
+			return new Resolved(new JSONObject(), parent, 0);
+		}
+		return this.resolve(path, resolving);
+	}
+
+	/**
+	 * Returns model with keys of child model replacing keys of parent. Textures
+	 * and display settings are merged key by key.
+	 */
+	private static JSONObject merge(JSONObject parent, JSONObject child) {
+		JSONObject merged = new JSONObject();
+		Iterator<?> keys = parent.keys();
+		while (keys.hasNext()) {
+			String key = (String) keys.next();
+			// Item overrides are not inherited.
+			if (!key.equals("overrides")) {
+				merged.put(key, parent.get(key));
+			}
+		}
+		keys = child.keys();
+		while (keys.hasNext()) {
+			String key = (String) keys.next();
+			if (key.equals("parent")) {
+				continue;
+			}
+			Object value = child.get(key);
+			if ((key.equals("textures") || key.equals("display"))
+					&& merged.has(key) && value instanceof JSONObject) {
+				JSONObject inherited = merged.getJSONObject(key);
+				JSONObject values = new JSONObject();
+				copy(inherited, values);
+				copy((JSONObject) value, values);
+				value = values;
+			}
+			merged.put(key, value);
+		}
+		return merged;
+	}
+
+	private static void copy(JSONObject from, JSONObject to) {
+		Iterator<?> keys = from.keys();
+		while (keys.hasNext()) {
+			String key = (String) keys.next();
+			to.put(key, from.get(key));
+		}
+	}
+
+	/**
+	 * Returns relative path of model file from model reference, for example
+	 * <code>block/cube</code> or <code>mymod:block/cube</code>, or null for
+	 * builtin models.
+	 */
+	static String modelPath(String model) {
+		int colon = model.indexOf(':');
+		String namespace = colon < 0 ? "minecraft" : model.substring(0, colon);
+		String path = model.substring(colon + 1);
+		if (path.startsWith("builtin/")) {
+			return null;
+		}
+		return "assets/" + namespace + "/models/" + path + ".json";
+	}
+
+	/**
+	 * Parses models in parallel. First error is kept, so it can be thrown
+	 * from calling thread.
+	 */
+	private class Parse extends RecursiveAction {
+		private static final long serialVersionUID = 2937590211645210741L;
+
+		private final List<String> names;
+		private final JSONObject[] parsed;
+		private final int from;
+		private final int to;
+		private volatile BuildError error;
+
+		Parse(List<String> names, JSONObject[] parsed, int from, int to) {
+			this.names = names;
+			this.parsed = parsed;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= PARSE_THRESHOLD) {
+				this.parse(this.from, this.to);
+				return;
+			}
+			int middle = (this.from + this.to) >>> 1;
+			Parse left = new Parse(this.names, this.parsed, this.from, middle);
+			Parse right = new Parse(this.names, this.parsed, middle, this.to);
+			invokeAll(left, right);
+			this.error = left.error != null ? left.error : right.error;
+		}
+
+		void parse(int from, int to) {
+			try {
+				for (int i = from; i < to; i++) {
+					String name = this.names.get(i);
+					this.parsed[i] = open(name).getJson(getCharset());
+				}
+			} catch (BuildError e) {
+				this.error = e;
+			}
+		}
+	}
+
+	/**
+	 * Model with all parents merged to it.
+	 */
+	private static class Resolved {
+		// Inherited keys without parent.
+		final JSONObject model;
+		// Parent which could not be merged or null.
+		final String root;
+		// Number of merged models.
+		final int depth;
+
+		Resolved(JSONObject model, String root, int depth) {
+			this.model = model;
+			this.root = root;
+			this.depth = depth;
+		}
+	}
+}
@@ -28,49 +28,104 @@
  */
 package eu.matejkormuth.rpbuild.compilers;
 
-import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
 
 import org.json.JSONObject;
 
 import eu.matejkormuth.rpbuild.Compiler;
 import eu.matejkormuth.rpbuild.OpenedFile;
+import eu.matejkormuth.rpbuild.ThreadSafe;
 import eu.matejkormuth.rpbuild.exceptions.BuildError;
 
+/**
+ * Represents compiler that validates texture references in models.
+ * <p>
+ * Textures found in resource pack are indexed once per build, so checking
+ * references does not touch file system. Problems found in all models are
+ * reported together after compilation.
+ */
+@ThreadSafe
 public class ModelValidator extends Compiler {
+	// Texture paths without extension, e.g. assets/minecraft/textures/blocks/stone.
+	private volatile Set<String> textures = Collections.emptySet();
+	private final ProblemList missingParticles = new ProblemList();
+	private final ProblemList missingTextures = new ProblemList();
 
 	@Override
-	public void compile(OpenedFile file) throws BuildError {
-		JSONObject model = new JSONObject(new String(file.getContents(),
-				this.getCharset()));
-		boolean failed = false;
+	public void onCompileStart() {
+		Set<String> textures = new HashSet<String>();
+		for (String name : this.getFileNames("assets")) {
+			if (name.contains("/textures/")
+					&& (name.endsWith(".png") || name.endsWith(".jpg"))) {
+				textures.add(name.substring(0, name.length() - 4));
+			}
+		}
+		this.textures = textures;
+		this.missingParticles.clear();
+		this.missingTextures.clear();
+	}
 
-		failed |= failParticleTex(file, model);
+	@Override
+	public void compile(OpenedFile file) throws BuildError {
+		String name = this.relativize(file.getPath()).toString()
+				.replace('\\', '/');
+		if (!name.contains("/models/")) {
+			// Only models reference textures.
+			return;
+		}
+		JSONObject model = file.getJson(this.getCharset());
 
-		if (failed) {
-			log.error("Model " + file.getPath().toString()
-					+ " has some errors!");
+		JSONObject texturesObj = model.optJSONObject("textures");
+		if (texturesObj == null || !texturesObj.has("particle")) {
+			this.missingParticles.add(name);
+		}
+		if (texturesObj == null) {
+			return;
 		}
-	}
 
-	private boolean failParticleTex(OpenedFile file, JSONObject model) {
-		JSONObject texturesObj = model.getJSONObject("textures");
-		if (texturesObj.has("particle")) {
-			String possiblePath = "assets/minecraft/textures/"
-					+ texturesObj.getString("particle");
-			boolean exists = Files.exists(this.getPath(possiblePath + ".png"))
-					|| Files.exists(this.getPath(possiblePath + ".jpg"));
-			if (!exists) {
-				log.error("Model " + file.getPath().toString()
-						+ " has declared non-existing particle texture '"
-						+ possiblePath + "'!");
-				return true;
+		Iterator<?> keys = texturesObj.keys();
+		while (keys.hasNext()) {
+			String key = (String) keys.next();
+			String texture = texturesObj.optString(key);
+			if (texture.startsWith("#")) {
+				// Reference to other texture variable.
+				continue;
+			}
+			if (!this.textures.contains(texturePath(texture))) {
+				this.missingTextures.add(name + " (" + key + ": " + texture
+						+ ")");
 			}
-			return false;
-		} else {
-			log.error("Model " + file.getPath().toString()
-					+ " is missing particle texture definition!");
-			return true;
 		}
 	}
 
+	@Override
+	public void onCompileEnd() {
+		this.missingParticles.report(log,
+				"Models are missing particle texture definition", true);
+		this.missingTextures.report(log,
+				"Models have declared non-existing textures", true);
+	}
+
+	@Override
+	public boolean isCacheable() {
+		// Validation depends on other files and must run every build.
+		return false;
+	}
+
+	/**
+	 * Returns path of texture without extension from texture reference used
+	 * in model, for example <code>blocks/stone</code> or
+	 * <code>mymod:block/stone</code>.
+	 */
+	static String texturePath(String texture) {
+		int colon = texture.indexOf(':');
+		if (colon < 0) {
+			return "assets/minecraft/textures/" + texture;
+		}
+		return "assets/" + texture.substring(0, colon) + "/textures/"
+				+ texture.substring(colon + 1);
+	}
 }
@@ -0,0 +1,552 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild.compilers;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import eu.matejkormuth.rpbuild.Compiler;
+import eu.matejkormuth.rpbuild.ImageCodecs;
+import eu.matejkormuth.rpbuild.OpenedFile;
+import eu.matejkormuth.rpbuild.ThreadSafe;
+import eu.matejkormuth.rpbuild.exceptions.BuildError;
+import eu.matejkormuth.rpbuild.exceptions.InvalidSettingsError;
+
+/**
+ * Represents compiler that makes PNG images smaller without changing their
+ * pixels.
+ * <p>
+ * All ancillary chunks (color profiles, gamma, texts, timestamps) are
+ * removed, as Minecraft ignores them. Images are stored with smallest color
+ * type and bit depth which can hold all their pixels and scanlines are
+ * filtered with several strategies, keeping the one which compresses best.
+ * Effort setting (1 - 3) controls how many combinations are tried. Images
+ * are replaced only when the result is smaller.
+ * <p>
+ * 16-bit and animated images and images with transparent color key are left
+ * as they are.
+ */
+@ThreadSafe
+public class PngOptimizer extends Compiler {
+	private static final byte[] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G',
+			'\r', '\n', 0x1A, '\n' };
+
+	private static final int GRAY = 0;
+	private static final int RGB = 2;
+	private static final int PALETTE = 3;
+	private static final int GRAY_ALPHA = 4;
+	private static final int RGBA = 6;
+
+	// Filter strategies, PNG filter types 0 - 4 and adaptive.
+	private static final int ADAPTIVE = 5;
+
+	private int effort;
+
+	@Override
+	public void onInit() throws InvalidSettingsError {
+		try {
+			this.effort = Integer.parseInt(this.getSetting("effort", "2")
+					.getValue());
+		} catch (NumberFormatException e) {
+			this.effort = 0;
+		}
+		if (this.effort < 1 || this.effort > 3) {
+			throw new InvalidSettingsError(
+					"Please set effort to 1 (fast), 2 or 3 (smallest files)!");
+		}
+	}
+
+	@Override
+	public void compile(OpenedFile file) throws BuildError {
+		BufferedImage image = file.getDecodedImage();
+		// Image set by previous compiler is not encoded yet.
+		boolean encoded = image == null || !file.isModified();
+		long size = Long.MAX_VALUE;
+		if (encoded) {
+			ByteBuffer contents = file.getBuffer();
+			if (!isOptimizable(contents)) {
+				return;
+			}
+			size = contents.remaining();
+			if (image == null) {
+				try (InputStream in = file.openStream()) {
+					image = ImageCodecs.read(in, "png", 1);
+				} catch (IOException e) {
+					throw new BuildError("Can't read image " + file.getPath()
+							+ "!", e);
+				}
+			}
+		}
+
+		int[] pixels = getPixels(image);
+		if (pixels == null) {
+			return;
+		}
+		byte[] optimized = this.optimize(pixels, image.getWidth(),
+				image.getHeight());
+		if (optimized.length < size) {
+			file.setContents(optimized);
+		}
+	}
+
+	/**
+	 * Returns whether image can be optimized without losing information
+	 * which is not read by ImageIO.
+	 */
+	private static boolean isOptimizable(ByteBuffer png) {
+		png = png.duplicate();
+		if (png.remaining() < SIGNATURE.length + 25) {
+			return false;
+		}
+		for (byte b : SIGNATURE) {
+			if (png.get() != b) {
+				return false;
+			}
+		}
+		int colorType = -1;
+		while (png.remaining() >= 12) {
+			int length = png.getInt();
+			String type = new String(new char[] { (char) png.get(),
+					(char) png.get(), (char) png.get(), (char) png.get() });
+			if (type.equals("IHDR")) {
+				int bitDepth = png.get(png.position() + 8);
+				colorType = png.get(png.position() + 9);
+				if (bitDepth == 16) {
+					return false;
+				}
+			} else if (type.equals("acTL")) {
+				// Animated PNG.
+				return false;
+			} else if (type.equals("tRNS") && colorType != PALETTE) {
+				// Color key is ignored by some ImageIO versions.
+				return false;
+			} else if (type.equals("IDAT")) {
+				return true;
+			}
+			if (length < 0 || length + 4 > png.remaining()) {
+				return false;
+			}
+			png.position(png.position() + length + 4);
+		}
+		return false;
+	}
+
+	/**
+	 * Returns ARGB pixels of image as stored in file, without color space
+	 * conversion, or null if image has more than 8 bits per sample.
+	 */
+	private static int[] getPixels(BufferedImage image) {
+		ColorModel model = image.getColorModel();
+		for (int size : model.getComponentSize()) {
+			if (size > 8) {
+				return null;
+			}
+		}
+		int width = image.getWidth();
+		int height = image.getHeight();
+		Raster raster = image.getRaster();
+		int bands = raster.getNumBands();
+		int[] samples = new int[width * bands];
+		int[] pixels = new int[width * height];
+		for (int y = 0; y < height; y++) {
+			raster.getPixels(0, y, width, 1, samples);
+			for (int x = 0; x < width; x++) {
+				int pixel;
+				if (model instanceof IndexColorModel) {
+					pixel = ((IndexColorModel) model).getRGB(samples[x]);
+				} else if (bands <= 2) {
+					int gray = scale(samples[x * bands], model.getComponentSize(0));
+					int alpha = bands == 2 ? scale(samples[x * 2 + 1],
+							model.getComponentSize(1)) : 255;
+					pixel = alpha << 24 | gray << 16 | gray << 8 | gray;
+				} else {
+					int i = x * bands;
+					int alpha = bands == 4 ? samples[i + 3] : 255;
+					pixel = alpha << 24 | samples[i] << 16 | samples[i + 1] << 8
+							| samples[i + 2];
+				}
+				pixels[y * width + x] = pixel;
+			}
+		}
+		return pixels;
+	}
+
+	// Scales sample with less than 8 bits to 8 bits.
+	private static int scale(int sample, int bits) {
+		return bits >= 8 ? sample : sample * 255 / ((1 << bits) - 1);
+	}
+
+	private byte[] optimize(int[] pixels, int width, int height)
+			throws BuildError {
+		List<Encoding> encodings = encodings(pixels);
+		if (this.effort == 1) {
+			// First encoding uses least bits.
+			encodings = encodings.subList(0, 1);
+		}
+
+		byte[] best = null;
+		for (Encoding encoding : encodings) {
+			byte[] raw = encoding.scanlines(pixels, width, height);
+			int rowBytes = raw.length / height;
+			int bpp = Math.max(1, encoding.bitsPerPixel() / 8);
+			for (int strategy : this.filters(encoding)) {
+				byte[] filtered = filter(raw, height, rowBytes, bpp, strategy);
+				for (int deflateStrategy : this.deflateStrategies()) {
+					byte[] compressed = deflate(filtered, deflateStrategy);
+					if (best == null || compressed.length < best.length) {
+						best = write(encoding, width, height, compressed);
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	private int[] filters(Encoding encoding) {
+		switch (this.effort) {
+		case 1:
+			// Filters rarely help images with less than 8 bits per pixel.
+			return encoding.bitsPerPixel() < 8 ? new int[] { 0 }
+					: new int[] { ADAPTIVE };
+		case 2:
+			return new int[] { 0, ADAPTIVE };
+		default:
+			return new int[] { 0, 1, 2, 3, 4, ADAPTIVE };
+		}
+	}
+
+	private int[] deflateStrategies() {
+		if (this.effort == 3) {
+			return new int[] { Deflater.DEFAULT_STRATEGY, Deflater.FILTERED };
+		}
+		return new int[] { Deflater.DEFAULT_STRATEGY };
+	}
+
+	/**
+	 * Returns possible lossless encodings of pixels, encoding with least bits
+	 * per pixel first.
+	 */
+	private static List<Encoding> encodings(int[] pixels) {
+		boolean opaque = true;
+		boolean gray = true;
+		// Bit depth needed by gray pixels.
+		int grayBits = 1;
+		// Colors in order of first occurrence or null if there are too many.
+		Map<Integer, Integer> colors = new LinkedHashMap<Integer, Integer>();
+		for (int pixel : pixels) {
+			int alpha = pixel >>> 24;
+			int r = pixel >> 16 & 0xFF;
+			opaque &= alpha == 255;
+			if (gray && (r != (pixel >> 8 & 0xFF) || r != (pixel & 0xFF))) {
+				gray = false;
+			}
+			while (grayBits < 8 && r % (255 / ((1 << grayBits) - 1)) != 0) {
+				grayBits *= 2;
+			}
+			if (colors != null && !colors.containsKey(pixel)) {
+				colors.put(pixel, colors.size());
+				if (colors.size() > 256) {
+					colors = null;
+				}
+			}
+		}
+
+		List<Encoding> encodings = new ArrayList<Encoding>();
+		if (gray && opaque && grayBits < 8) {
+			encodings.add(new Encoding(GRAY, grayBits, null));
+		}
+		if (colors != null) {
+			encodings.add(palette(colors));
+		}
+		if (gray) {
+			encodings.add(opaque ? new Encoding(GRAY, 8, null) : new Encoding(
+					GRAY_ALPHA, 8, null));
+		}
+		encodings.add(opaque ? new Encoding(RGB, 8, null) : new Encoding(RGBA,
+				8, null));
+		return encodings;
+	}
+
+	private static Encoding palette(Map<Integer, Integer> colors) {
+		// Transparent colors first, so transparency chunk is short.
+		int[] palette = new int[colors.size()];
+		int index = 0;
+		for (int color : colors.keySet()) {
+			if (color >>> 24 != 255) {
+				palette[index++] = color;
+			}
+		}
+		for (int color : colors.keySet()) {
+			if (color >>> 24 == 255) {
+				palette[index++] = color;
+			}
+		}
+		int bits = 1;
+		while (1 << bits < palette.length) {
+			bits *= 2;
+		}
+		return new Encoding(PALETTE, bits, palette);
+	}
+
+	/**
+	 * Filters scanlines with specified filter type or with filter that gives
+	 * smallest sum of absolute differences for each scanline.
+	 */
+	static byte[] filter(byte[] raw, int height, int rowBytes, int bpp,
+			int strategy) {
+		byte[] filtered = new byte[height * (rowBytes + 1)];
+		byte[] candidate = new byte[rowBytes];
+		for (int y = 0; y < height; y++) {
+			int row = y * rowBytes;
+			int out = y * (rowBytes + 1);
+			if (strategy != ADAPTIVE) {
+				filtered[out] = (byte) strategy;
+				filterRow(raw, row, rowBytes, bpp, strategy, filtered, out + 1);
+				continue;
+			}
+			long bestSum = Long.MAX_VALUE;
+			for (int type = 0; type < 5; type++) {
+				filterRow(raw, row, rowBytes, bpp, type, candidate, 0);
+				long sum = 0;
+				for (byte b : candidate) {
+					sum += Math.abs(b);
+				}
+				if (sum < bestSum) {
+					bestSum = sum;
+					filtered[out] = (byte) type;
+					System.arraycopy(candidate, 0, filtered, out + 1, rowBytes);
+				}
+			}
+		}
+		return filtered;
+	}
+
+	private static void filterRow(byte[] raw, int row, int rowBytes, int bpp,
+			int type, byte[] out, int offset) {
+		for (int i = 0; i < rowBytes; i++) {
+			int x = raw[row + i] & 0xFF;
+			int a = i >= bpp ? raw[row + i - bpp] & 0xFF : 0;
+			int b = row > 0 ? raw[row - rowBytes + i] & 0xFF : 0;
+			int c = i >= bpp && row > 0 ? raw[row - rowBytes + i - bpp] & 0xFF
+					: 0;
+			int predicted;
+			switch (type) {
+			case 1:
+				predicted = a;
+				break;
+			case 2:
+				predicted = b;
+				break;
+			case 3:
+				predicted = (a + b) >>> 1;
+				break;
+			case 4:
+				predicted = paeth(a, b, c);
+				break;
+			default:
+				predicted = 0;
+			}
+			out[offset + i] = (byte) (x - predicted);
+		}
+	}
+
+	private static int paeth(int a, int b, int c) {
+		int p = a + b - c;
+		int pa = Math.abs(p - a);
+		int pb = Math.abs(p - b);
+		int pc = Math.abs(p - c);
+		if (pa <= pb && pa <= pc) {
+			return a;
+		}
+		return pb <= pc ? b : c;
+	}
+
+	private static byte[] deflate(byte[] data, int strategy) {
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		try {
+			deflater.setStrategy(strategy);
+			deflater.setInput(data);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					data.length / 2 + 64);
+			byte[] buffer = new byte[16 * 1024];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] write(Encoding encoding, int width, int height,
+			byte[] compressed) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				compressed.length + 1024);
+		out.write(SIGNATURE, 0, SIGNATURE.length);
+
+		ByteBuffer header = ByteBuffer.allocate(13);
+		header.putInt(width).putInt(height).put((byte) encoding.bitDepth)
+				.put((byte) encoding.colorType).put((byte) 0).put((byte) 0)
+				.put((byte) 0);
+		writeChunk(out, "IHDR", header.array());
+
+		if (encoding.palette != null) {
+			byte[] plte = new byte[encoding.palette.length * 3];
+			int transparent = 0;
+			for (int i = 0; i < encoding.palette.length; i++) {
+				int color = encoding.palette[i];
+				plte[i * 3] = (byte) (color >> 16);
+				plte[i * 3 + 1] = (byte) (color >> 8);
+				plte[i * 3 + 2] = (byte) color;
+				if (color >>> 24 != 255) {
+					transparent = i + 1;
+				}
+			}
+			writeChunk(out, "PLTE", plte);
+			if (transparent > 0) {
+				byte[] trns = new byte[transparent];
+				for (int i = 0; i < transparent; i++) {
+					trns[i] = (byte) (encoding.palette[i] >>> 24);
+				}
+				writeChunk(out, "tRNS", trns);
+			}
+		}
+
+		writeChunk(out, "IDAT", compressed);
+		writeChunk(out, "IEND", new byte[0]);
+		return out.toByteArray();
+	}
+
+	private static void writeChunk(ByteArrayOutputStream out, String type,
+			byte[] data) {
+		byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data);
+		ByteBuffer chunk = ByteBuffer.allocate(12 + data.length);
+		chunk.putInt(data.length).put(typeBytes).put(data)
+				.putInt((int) crc.getValue());
+		out.write(chunk.array(), 0, chunk.capacity());
+	}
+
+	/**
+	 * Color type, bit depth and palette of image.
+	 */
+	private static class Encoding {
+		final int colorType;
+		final int bitDepth;
+		// Colors for palette color type or null.
+		final int[] palette;
+
+		Encoding(int colorType, int bitDepth, int[] palette) {
+			this.colorType = colorType;
+			this.bitDepth = bitDepth;
+			this.palette = palette;
+		}
+
+		int bitsPerPixel() {
+			switch (this.colorType) {
+			case RGB:
+				return 24;
+			case GRAY_ALPHA:
+				return 16;
+			case RGBA:
+				return 32;
+			default:
+				return this.bitDepth;
+			}
+		}
+
+		/**
+		 * Returns unfiltered scanlines of pixels in this encoding.
+		 */
+		byte[] scanlines(int[] pixels, int width, int height) {
+			int bits = this.bitsPerPixel();
+			int rowBytes = (width * bits + 7) / 8;
+			byte[] raw = new byte[rowBytes * height];
+			Map<Integer, Integer> indexes = null;
+			if (this.palette != null) {
+				indexes = new HashMap<Integer, Integer>();
+				for (int i = 0; i < this.palette.length; i++) {
+					indexes.put(this.palette[i], i);
+				}
+			}
+			for (int y = 0; y < height; y++) {
+				int row = y * rowBytes;
+				for (int x = 0; x < width; x++) {
+					int pixel = pixels[y * width + x];
+					if (bits >= 8 && this.colorType != PALETTE) {
+						int i = row + x * bits / 8;
+						switch (this.colorType) {
+						case GRAY:
+							raw[i] = (byte) pixel;
+							break;
+						case GRAY_ALPHA:
+							raw[i] = (byte) pixel;
+							raw[i + 1] = (byte) (pixel >>> 24);
+							break;
+						case RGB:
+							raw[i] = (byte) (pixel >> 16);
+							raw[i + 1] = (byte) (pixel >> 8);
+							raw[i + 2] = (byte) pixel;
+							break;
+						default:
+							raw[i] = (byte) (pixel >> 16);
+							raw[i + 1] = (byte) (pixel >> 8);
+							raw[i + 2] = (byte) pixel;
+							raw[i + 3] = (byte) (pixel >>> 24);
+						}
+						continue;
+					}
+					// Palette index or gray level packed from highest bits.
+					int value = this.palette != null ? indexes.get(pixel)
+							: (pixel & 0xFF) / (255 / ((1 << bits) - 1));
+					int bit = x * bits;
+					raw[row + bit / 8] |= value << (8 - bits - bit % 8);
+				}
+			}
+			return raw;
+		}
+	}
+}
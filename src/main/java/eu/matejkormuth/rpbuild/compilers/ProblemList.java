@@ -0,0 +1,89 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild.compilers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+
+/**
+ * Collects problems found by compile threads, so they can be reported
+ * together after compilation instead of one log line per file.
+ */
+class ProblemList {
+	// Problems listed in report, others are only counted.
+	private static final int REPORTED_EXAMPLES = 10;
+
+	private final Set<String> problems = Collections
+			.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	void add(String problem) {
+		this.problems.add(problem);
+	}
+
+	void clear() {
+		this.problems.clear();
+	}
+
+	/**
+	 * Logs title with number of problems and few of them sorted.
+	 * 
+	 * @param log
+	 *            logger of compiler
+	 * @param title
+	 *            description of problems
+	 * @param error
+	 *            whether to log as error or warning
+	 */
+	void report(Logger log, String title, boolean error) {
+		if (this.problems.isEmpty()) {
+			return;
+		}
+		List<String> sorted = new ArrayList<String>(this.problems);
+		Collections.sort(sorted);
+		StringBuilder report = new StringBuilder();
+		report.append(title).append(" (").append(sorted.size()).append("):");
+		for (int i = 0; i < sorted.size() && i < REPORTED_EXAMPLES; i++) {
+			report.append("\n  ").append(sorted.get(i));
+		}
+		if (sorted.size() > REPORTED_EXAMPLES) {
+			report.append("\n  ... and ")
+					.append(sorted.size() - REPORTED_EXAMPLES).append(" more");
+		}
+		if (error) {
+			log.error(report.toString());
+		} else {
+			log.warn(report.toString());
+		}
+	}
+}
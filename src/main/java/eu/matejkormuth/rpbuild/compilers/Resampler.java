@@ -0,0 +1,357 @@
+/**
+ * Minecraft resource pack compiler and assembler - rpBuild - Build system for Minecraft resource packs.
+ * Copyright (c) 2015, Matej Kormuth <http://www.github.com/dobrakmato>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and/or
+ * other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * "Minecraft" is a trademark of Mojang AB
+ */
+package eu.matejkormuth.rpbuild.compilers;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Resizes images with separable filters. Pixels are resampled as ARGB ints
+ * with premultiplied alpha, so colors of transparent pixels don't bleed to
+ * visible ones.
+ * <p>
+ * When called from fork/join pool (for example by compile threads), rows of
+ * big images are resampled in parallel by other threads of the pool.
+ */
+public final class Resampler {
+	// Approximate number of filter taps computed by one task.
+	private static final int BAND_TAPS = 256 * 1024;
+
+	/**
+	 * Filter used to compute value of resized pixel from source pixels.
+	 */
+	public enum Filter {
+		/**
+		 * Average of all source pixels covered by resized pixel.
+		 */
+		BOX(0.5) {
+			@Override
+			double weight(double x) {
+				return x >= -0.5 && x < 0.5 ? 1 : 0;
+			}
+		},
+		/**
+		 * Mitchell-Netravali cubic filter with B = C = 1/3.
+		 */
+		MITCHELL(2) {
+			@Override
+			double weight(double x) {
+				x = Math.abs(x);
+				if (x < 1) {
+					return (7 * x * x * x - 12 * x * x + 16.0 / 3) / 6;
+				}
+				if (x < 2) {
+					return (-7.0 / 3 * x * x * x + 12 * x * x - 20 * x + 32.0 / 3) / 6;
+				}
+				return 0;
+			}
+		},
+		/**
+		 * Lanczos filter with three lobes.
+		 */
+		LANCZOS(3) {
+			@Override
+			double weight(double x) {
+				if (x == 0) {
+					return 1;
+				}
+				if (x <= -3 || x >= 3) {
+					return 0;
+				}
+				double px = Math.PI * x;
+				return 3 * Math.sin(px) * Math.sin(px / 3) / (px * px);
+			}
+		};
+
+		// Radius of filter in source pixels when image is not scaled.
+		private final double support;
+
+		private Filter(double support) {
+			this.support = support;
+		}
+
+		abstract double weight(double x);
+	}
+
+	private final Filter filter;
+
+	public Resampler(Filter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * Resizes image to specified size. Image of any type can be resized,
+	 * resized image is always {@link BufferedImage#TYPE_INT_ARGB}.
+	 * 
+	 * @param image
+	 *            image to resize
+	 * @param width
+	 *            width of resized image
+	 * @param height
+	 *            height of resized image
+	 * @return resized image
+	 */
+	public BufferedImage resize(BufferedImage image, int width, int height) {
+		int srcWidth = image.getWidth();
+		int srcHeight = image.getHeight();
+		if (image.getType() != BufferedImage.TYPE_INT_ARGB
+				|| image.getRaster().getDataBuffer().getSize() != srcWidth
+						* srcHeight) {
+			// Converting whole image at once is much faster than getRGB.
+			BufferedImage argb = new BufferedImage(srcWidth, srcHeight,
+					BufferedImage.TYPE_INT_ARGB);
+			Graphics2D graphics = argb.createGraphics();
+			graphics.setComposite(AlphaComposite.Src);
+			graphics.drawImage(image, 0, 0, null);
+			graphics.dispose();
+			image = argb;
+		}
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+				.getData();
+		BufferedImage resized = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_ARGB);
+		int[] data = ((DataBufferInt) resized.getRaster().getDataBuffer())
+				.getData();
+		System.arraycopy(this.resize(pixels, srcWidth, srcHeight, width,
+				height), 0, data, 0, data.length);
+		return resized;
+	}
+
+	/**
+	 * Resizes image stored as ARGB pixels (not premultiplied) row by row.
+	 * 
+	 * @param pixels
+	 *            pixels of image
+	 * @param srcWidth
+	 *            width of image
+	 * @param srcHeight
+	 *            height of image
+	 * @param width
+	 *            width of resized image
+	 * @param height
+	 *            height of resized image
+	 * @return pixels of resized image
+	 */
+	public int[] resize(int[] pixels, int srcWidth, int srcHeight, int width,
+			int height) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Invalid size " + width + "x"
+					+ height + "!");
+		}
+		Weights horizontal = new Weights(this.filter, srcWidth, width);
+		Weights vertical = new Weights(this.filter, srcHeight, height);
+		// Premultiplied alpha, red, green and blue of horizontally
+		// resampled rows.
+		float[] rows = new float[srcHeight * width * 4];
+		int[] resized = new int[width * height];
+
+		run(new Pass(pixels, srcWidth, rows, width, horizontal, null, 0,
+				srcHeight), width * horizontal.taps);
+		run(new Pass(null, srcWidth, rows, width, vertical, resized, 0, height),
+				width * vertical.taps);
+		return resized;
+	}
+
+	private static void run(Pass pass, int tapsPerRow) {
+		pass.rowsPerTask = Math.max(1, BAND_TAPS / Math.max(1, tapsPerRow));
+		if (ForkJoinTask.inForkJoinPool()) {
+			pass.invoke();
+		} else {
+			pass.resample(pass.from, pass.to);
+		}
+	}
+
+	/**
+	 * Source pixels and their normalized weights for each resized pixel in
+	 * one direction.
+	 */
+	private static class Weights {
+		// Maximum number of source pixels of one resized pixel.
+		final int taps;
+		// First source pixel of each resized pixel.
+		final int[] start;
+		// Number of source pixels of each resized pixel.
+		final int[] count;
+		// Weights of source pixels, taps for each resized pixel.
+		final float[] values;
+
+		Weights(Filter filter, int srcSize, int size) {
+			double scale = (double) srcSize / size;
+			// When downscaling, filter covers more source pixels.
+			double filterScale = Math.max(scale, 1);
+			double support = filter.support * filterScale;
+			this.taps = (int) Math.ceil(support) * 2 + 2;
+			this.start = new int[size];
+			this.count = new int[size];
+			this.values = new float[size * this.taps];
+
+			for (int i = 0; i < size; i++) {
+				double center = (i + 0.5) * scale;
+				int left = Math.max(0, (int) Math.floor(center - support));
+				int right = Math.min(srcSize, (int) Math.ceil(center + support));
+				right = Math.min(right, left + this.taps);
+
+				double sum = 0;
+				for (int j = left; j < right; j++) {
+					double weight = filter.weight((j + 0.5 - center)
+							/ filterScale);
+					this.values[i * this.taps + j - left] = (float) weight;
+					sum += weight;
+				}
+				if (sum == 0) {
+					// Filter missed all pixels, use the nearest one.
+					left = Math.min(srcSize - 1, (int) center);
+					right = left + 1;
+					this.values[i * this.taps] = 1;
+					sum = 1;
+				}
+				for (int j = 0; j < right - left; j++) {
+					this.values[i * this.taps + j] /= sum;
+				}
+				this.start[i] = left;
+				this.count[i] = right - left;
+			}
+		}
+	}
+
+	/**
+	 * Resamples rows of image in one direction. Without source pixels, rows
+	 * are resampled vertically to resized image.
+	 */
+	private static class Pass extends RecursiveAction {
+		private static final long serialVersionUID = -4627211719460812474L;
+
+		private final int[] pixels;
+		private final int srcWidth;
+		private final float[] rows;
+		private final int width;
+		private final Weights weights;
+		private final int[] resized;
+		private final int from;
+		private final int to;
+		private int rowsPerTask;
+
+		Pass(int[] pixels, int srcWidth, float[] rows, int width,
+				Weights weights, int[] resized, int from, int to) {
+			this.pixels = pixels;
+			this.srcWidth = srcWidth;
+			this.rows = rows;
+			this.width = width;
+			this.weights = weights;
+			this.resized = resized;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= this.rowsPerTask) {
+				this.resample(this.from, this.to);
+				return;
+			}
+			int middle = (this.from + this.to) >>> 1;
+			invokeAll(this.part(this.from, middle), this.part(middle, this.to));
+		}
+
+		private Pass part(int from, int to) {
+			Pass part = new Pass(this.pixels, this.srcWidth, this.rows,
+					this.width, this.weights, this.resized, from, to);
+			part.rowsPerTask = this.rowsPerTask;
+			return part;
+		}
+
+		void resample(int from, int to) {
+			if (this.pixels != null) {
+				this.horizontal(from, to);
+			} else {
+				this.vertical(from, to);
+			}
+		}
+
+		private void horizontal(int from, int to) {
+			Weights w = this.weights;
+			for (int y = from; y < to; y++) {
+				int row = y * this.srcWidth;
+				int out = y * this.width * 4;
+				for (int x = 0; x < this.width; x++) {
+					float a = 0, r = 0, g = 0, b = 0;
+					int offset = x * w.taps;
+					int start = row + w.start[x];
+					for (int i = 0; i < w.count[x]; i++) {
+						int pixel = this.pixels[start + i];
+						float wa = w.values[offset + i] * (pixel >>> 24);
+						a += wa;
+						r += wa * (pixel >> 16 & 0xFF);
+						g += wa * (pixel >> 8 & 0xFF);
+						b += wa * (pixel & 0xFF);
+					}
+					this.rows[out++] = a;
+					this.rows[out++] = r;
+					this.rows[out++] = g;
+					this.rows[out++] = b;
+				}
+			}
+		}
+
+		private void vertical(int from, int to) {
+			Weights w = this.weights;
+			int stride = this.width * 4;
+			for (int y = from; y < to; y++) {
+				int offset = y * w.taps;
+				for (int x = 0; x < this.width; x++) {
+					float a = 0, r = 0, g = 0, b = 0;
+					int in = w.start[y] * stride + x * 4;
+					for (int i = 0; i < w.count[y]; i++, in += stride) {
+						float weight = w.values[offset + i];
+						a += weight * this.rows[in];
+						r += weight * this.rows[in + 1];
+						g += weight * this.rows[in + 2];
+						b += weight * this.rows[in + 3];
+					}
+					int pixel = 0;
+					if (a > 0) {
+						// Colors are premultiplied by alpha in 0 - 255.
+						pixel = clamp(a) << 24 | clamp(r / a) << 16
+								| clamp(g / a) << 8 | clamp(b / a);
+					}
+					this.resized[y * this.width + x] = pixel;
+				}
+			}
+		}
+
+		private static int clamp(float value) {
+			int rounded = Math.round(value);
+			return rounded < 0 ? 0 : rounded > 255 ? 255 : rounded;
+		}
+	}
+}
@@ -42,7 +42,9 @@ import javax.xml.bind.annotation.XmlElements;
 import javax.xml.bind.annotation.XmlRootElement;
 
 import eu.matejkormuth.rpbuild.api.BuildStep;
+import eu.matejkormuth.rpbuild.api.CompressionPolicy;
 import eu.matejkormuth.rpbuild.api.Project;
+import eu.matejkormuth.rpbuild.api.Variant;
 import eu.matejkormuth.rpbuild.compilers.JsonCompressor;
 import eu.matejkormuth.rpbuild.generators.PackMcmetaGenerator;
 
@@ -61,6 +63,32 @@ public class XmlProject implements Project {
 	@XmlElement(defaultValue = "9")
 	protected int compressionLevel;
 	@XmlElement
+	protected int threads = 1;
+	@XmlElement
+	protected boolean pipeline = false;
+	@XmlElement
+	protected String staging = "copy";
+	@XmlElement
+	protected int memoryFileLimit = 1024;
+	@XmlElement
+	protected int memoryBudget = 256;
+	@XmlElement
+	protected Path cache;
+	@XmlElement
+	protected int archiveWindow = 0;
+	@XmlElement
+	protected boolean deduplicate = false;
+	@XmlElement
+	protected boolean metrics = false;
+	@XmlElement
+	protected int metricsThreshold = 20;
+	@XmlElement
+	protected String serverAddress = "127.0.0.1";
+	@XmlElement
+	protected int serverPort = 8080;
+	@XmlElement
+	protected int serverThreads = 8;
+	@XmlElement
 	protected Path src = Paths.get(".");
 	@XmlElement
 	protected Path target = Paths.get("latest.zip");
@@ -71,6 +99,12 @@ public class XmlProject implements Project {
 	protected BuildStep[] build = new BuildStep[] {
 			new XmlBuildStepGenerate(PackMcmetaGenerator.class),
 			new XmlBuildStepCompile(JsonCompressor.class, ".json") };
+	@XmlElement(name = "policy")
+	@XmlElementWrapper(name = "compression")
+	protected XmlCompressionPolicy[] compression = new XmlCompressionPolicy[0];
+	@XmlElement(name = "variant")
+	@XmlElementWrapper(name = "variants")
+	protected XmlVariant[] variants = new XmlVariant[0];
 	@XmlElement
 	@XmlElementWrapper(name = "filters")
 	protected String[] filter = new String[] { "rpbuild.xml", ".jar", ".zip" };
@@ -140,6 +174,81 @@ public class XmlProject implements Project {
 		return this.compressionLevel;
 	}
 	
+	@Override
+	public int getThreads() {
+		return this.threads;
+	}
+
+	@Override
+	public boolean isPipeline() {
+		return this.pipeline;
+	}
+
+	@Override
+	public String getStaging() {
+		return this.staging;
+	}
+
+	@Override
+	public Path getCache() {
+		return this.cache;
+	}
+
+	@Override
+	public int getArchiveWindow() {
+		return this.archiveWindow;
+	}
+
+	@Override
+	public boolean isDeduplicate() {
+		return this.deduplicate;
+	}
+
+	@Override
+	public boolean isMetrics() {
+		return this.metrics;
+	}
+
+	@Override
+	public int getMetricsThreshold() {
+		return this.metricsThreshold;
+	}
+
+	@Override
+	public CompressionPolicy[] getCompression() {
+		return this.compression;
+	}
+
+	@Override
+	public Variant[] getVariants() {
+		return this.variants;
+	}
+
+	@Override
+	public String getServerAddress() {
+		return this.serverAddress;
+	}
+
+	@Override
+	public int getMemoryFileLimit() {
+		return this.memoryFileLimit;
+	}
+
+	@Override
+	public int getMemoryBudget() {
+		return this.memoryBudget;
+	}
+
+	@Override
+	public int getServerPort() {
+		return this.serverPort;
+	}
+
+	@Override
+	public int getServerThreads() {
+		return this.serverThreads;
+	}
+
 	@Override
 	public List<String> getFilters() {
 		return Arrays.asList(this.filter);
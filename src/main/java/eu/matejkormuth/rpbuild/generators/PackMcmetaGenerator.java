@@ -28,6 +28,7 @@
  */
 package eu.matejkormuth.rpbuild.generators;
 
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -57,4 +58,10 @@ public class PackMcmetaGenerator extends Generator {
 		return new OpenedFile(this.getPath("pack.mcmeta"), json.toString(2)
 				.getBytes(this.getCharset()));
 	}
+
+	@Override
+	public boolean isAffectedBy(Path relative) {
+		// Depends only on project settings.
+		return false;
+	}
 }
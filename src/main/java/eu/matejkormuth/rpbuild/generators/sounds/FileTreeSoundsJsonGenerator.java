@@ -33,6 +33,7 @@ import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Arrays;
 
@@ -61,12 +62,11 @@ public class FileTreeSoundsJsonGenerator extends Generator implements
 	@Override
 	public OpenedFile generate() throws BuildError {
 		this.root = new JSONObject();
-		this.relativizator = this.getProject().getSrc()
-				.resolve("assets/minecraft/sounds/");
+		this.relativizator = this.getPath("assets/minecraft/sounds/");
 
 		// Start walking on root of sounds.
 		try {
-			Files.walkFileTree(this.getPath("assets/minecraft/sounds/"), this);
+			Files.walkFileTree(this.relativizator, this);
 		} catch (IOException e) {
 			throw new BuildError("Can't walk file tree!", e);
 		}
@@ -75,6 +75,11 @@ public class FileTreeSoundsJsonGenerator extends Generator implements
 				this.root.toString(2).getBytes(this.getCharset()));
 	}
 
+	@Override
+	public boolean isAffectedBy(Path relative) {
+		return relative.startsWith(Paths.get("assets/minecraft/sounds"));
+	}
+
 	@Override
 	public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
 			throws IOException {